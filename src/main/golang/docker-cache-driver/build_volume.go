@@ -2,6 +2,7 @@ package main
 
 import (
 	"fmt"
+	"io/ioutil"
 	"os"
 	"path"
 	"syscall"
@@ -21,6 +22,7 @@ func newBuildVolume(job, build string, cacheRootDirs *rootDirs) *buildVolume {
 			upper:  path.Join(cacheRootDirs.upper, job, build),
 			work:   path.Join(cacheRootDirs.work, job, build),
 			lower:  path.Join(cacheRootDirs.lower, job), // We don't know the base build yet
+			shared: cacheRootDirs.shared,
 		},
 	}
 }
@@ -40,7 +42,10 @@ func (volume *buildVolume) mount() error {
 	}
 	baseBuildDir := path.Join(volume.rootDirs.lower, baseBuild)
 	overlayDirs := fmt.Sprintf("lowerdir=%s,upperdir=%s,workdir=%s", baseBuildDir, volume.rootDirs.upper, volume.rootDirs.work)
-	return syscall.Mount("overlay", volume.rootDirs.merged, "overlay", 0, overlayDirs)
+	if err := syscall.Mount("overlay", volume.rootDirs.merged, "overlay", 0, overlayDirs); err != nil {
+		return err
+	}
+	return cacheState.mounted(volume.rootDirs.lower, volume.build, baseBuild)
 }
 
 func (buildVolume *buildVolume) destroy() error {
@@ -60,11 +65,40 @@ func (buildVolume *buildVolume) destroy() error {
 		cacheState.updateState(buildVolume.rootDirs.lower, buildVolume.build)
 
 		fmt.Println(fmt.Sprintf("Unmount-%s: Clone complete. Cloned to %s", volumeName, newLowerDir))
-		return unMountVolume(buildVolume)
 	} else {
 		fmt.Println(fmt.Sprintf("Unmount-%s: Upper empty. cleaning up cache dirs", volumeName))
-		return unMountVolume(buildVolume)
 	}
+	if err := unMountVolume(buildVolume); err != nil {
+		return err
+	}
+	cacheState, err := getCacheState(buildVolume.rootDirs.lower)
+	if err != nil {
+		return err
+	}
+	if err := cacheState.unmounted(buildVolume.rootDirs.lower, buildVolume.build); err != nil {
+		return err
+	}
+	if buildVolume.rootDirs.shared {
+		return nil // a build on another node may still sit on a superseded base
+	}
+	return pruneBases(buildVolume.rootDirs.lower, cacheState)
+}
+
+// pruneBases removes bases that were superseded by a newer build and that no running build sits on.
+func pruneBases(cacheLowerJobDir string, cacheState *cacheState) error {
+	entries, err := ioutil.ReadDir(cacheLowerJobDir)
+	if err != nil {
+		return err
+	}
+	for _, entry := range entries {
+		if entry.IsDir() && !cacheState.isLive(entry.Name()) {
+			fmt.Println(fmt.Sprintf("Prune: removing superseded base %s", path.Join(cacheLowerJobDir, entry.Name())))
+			if err := os.RemoveAll(path.Join(cacheLowerJobDir, entry.Name())); err != nil {
+				return err
+			}
+		}
+	}
+	return nil
 }
 
 func unMountVolume(buildVolume *buildVolume) error {
@@ -5,6 +5,7 @@ import (
 	"io/ioutil"
 	"os"
 	"path"
+	"strings"
 )
 
 type cacheState struct {
@@ -41,6 +42,43 @@ func getCacheState(fileLocationDir string) (*cacheState, error) {
 	}
 }
 
+// mounted records the base a build's overlay sits on, so the base isn't pruned while the build runs.
+// Saving also marks the cache as recently used.
+func (cacheState *cacheState) mounted(cacheLowerRootDir, build, baseBuild string) error {
+	cacheState.State[mountKey(build)] = baseBuild
+	return cacheState.save(cacheLowerRootDir)
+}
+
+func (cacheState *cacheState) unmounted(cacheLowerRootDir, build string) error {
+	delete(cacheState.State, mountKey(build))
+	return cacheState.save(cacheLowerRootDir)
+}
+
+func (cacheState *cacheState) inUse() bool {
+	for key := range cacheState.State {
+		if strings.HasPrefix(key, mountPrefix) {
+			return true
+		}
+	}
+	return false
+}
+
+// isLive tells whether a base dir is the latest or still under a running build.
+func (cacheState *cacheState) isLive(baseBuild string) bool {
+	for key, value := range cacheState.State {
+		if value == baseBuild && (key == "latest" || strings.HasPrefix(key, mountPrefix)) {
+			return true
+		}
+	}
+	return false
+}
+
+const mountPrefix = "mount:"
+
+func mountKey(build string) string {
+	return mountPrefix + build
+}
+
 func (cacheState *cacheState) updateState(cacheLowerRootDir, newLatest string) error {
 	cacheState.State["latest"] = newLatest
 	return cacheState.save(cacheLowerRootDir)
@@ -6,8 +6,30 @@ import (
 	"os"
 	"path/filepath"
 	"regexp"
+	"syscall"
 )
 
+// Magic numbers of network file systems, from statfs(2).
+var networkFsTypes = map[int64]string{
+	0x6969:     "nfs",
+	0xFF534D42: "cifs",
+	0xFE534D42: "smb2",
+	0x517B:     "smb",
+	0x00C36400: "ceph",
+	0x65735546: "fuse", // glusterfs, sshfs, ...
+}
+
+// isNetworkFs tells whether dir is on a file system other nodes may mount too.
+func isNetworkFs(dir string) bool {
+	var stat syscall.Statfs_t
+	if err := syscall.Statfs(dir, &stat); err != nil {
+		fmt.Println(fmt.Sprintf("Couldn't stat file system of %s. %s", dir, err))
+		return false
+	}
+	_, network := networkFsTypes[int64(stat.Type)]
+	return network
+}
+
 func isEmpty(dirPath string) (bool, error) {
 	//*.properties *.xml
 	err := filepath.Walk(dirPath, func(path string, f os.FileInfo, _ error) error {
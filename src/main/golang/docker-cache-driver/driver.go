@@ -15,14 +15,18 @@ type rootDirs struct {
 	upper  string
 	work   string
 	merged string
+	// shared is set when other nodes use the same lower dir. Their mounts aren't visible here, so bases and caches
+	// are never deleted.
+	shared bool
 }
 
-func newRootDirs(lower, upper, work, merged *string) rootDirs {
+func newRootDirs(lower, upper, work, merged *string, shared bool) rootDirs {
 	return rootDirs{
 		lower:  *lower,
 		upper:  *upper,
 		work:   *work,
 		merged: *merged,
+		shared: shared,
 	}
 }
 func (rootDirs rootDirs) mkdirs() error {
@@ -33,17 +37,25 @@ type cacheDriver struct {
 	mutex    *sync.Mutex
 	name     string
 	rootDirs *rootDirs
+	quota    int64
 }
 
-func newCacheDriver(lower, upper, work, merged *string) cacheDriver {
+func newCacheDriver(lower, upper, work, merged *string, quota int64, sharedLower bool) cacheDriver {
 	fmt.Println("Starting Cache Driver... ")
-	rootDirs := newRootDirs(lower, upper, work, merged)
+	rootDirs := newRootDirs(lower, upper, work, merged, sharedLower)
 	driver := cacheDriver{
 		mutex:    &sync.Mutex{},
 		name:     "cache-driver",
 		rootDirs: &rootDirs,
+		quota:    quota,
 	}
 	rootDirs.mkdirs()
+	if !rootDirs.shared && isNetworkFs(rootDirs.lower) {
+		rootDirs.shared = true
+	}
+	if rootDirs.shared {
+		fmt.Println(fmt.Sprintf("%s is shared with other nodes, superseded bases and the cache quota won't be cleaned up", rootDirs.lower))
+	}
 	return driver
 }
 
@@ -127,7 +139,20 @@ func (driver cacheDriver) Mount(req volume.Request) volume.Response {
 func (driver cacheDriver) Unmount(req volume.Request) volume.Response {
 	driver.mutex.Lock()
 	defer driver.mutex.Unlock()
-	return removeVolume(driver, req)
+	response := removeVolume(driver, req)
+	go driver.enforceQuota()
+	return response
+}
+
+func (driver cacheDriver) enforceQuota() {
+	if driver.rootDirs.shared {
+		return
+	}
+	driver.mutex.Lock()
+	defer driver.mutex.Unlock()
+	if err := enforceQuota(driver.rootDirs.lower, driver.quota); err != nil {
+		fmt.Println(fmt.Sprintf("Quota: couldn't enforce cache quota. %s", err))
+	}
 }
 
 func (driver cacheDriver) Remove(req volume.Request) volume.Response {
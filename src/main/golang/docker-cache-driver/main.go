@@ -14,9 +14,11 @@ func main() {
 	upperRootDir := flag.String("cacheUpperDir", "/mnt/cache-upper", "root location of upper dir")
 	workRootDir := flag.String("cacheWorkDir", "/mnt/cache-work", "root location of work dir")
 	mergedRootDir := flag.String("cacheMergedDir", "/mnt/cache-merged", "root location of merged dir")
+	quota := flag.Int64("cacheQuota", 0, "bytes the caches on this node may use before the least recently used are evicted, 0 for no limit")
+	sharedLower := flag.Bool("sharedLowerDir", false, "the lower dir is shared with other nodes, e.g. on NFS; detected for common network file systems")
 	WithLock("/var/run/cache-driver.pid", func() {
 		flag.Parse()
-		driver := newCacheDriver(lowerRootDir, upperRootDir, workRootDir, mergedRootDir)
+		driver := newCacheDriver(lowerRootDir, upperRootDir, workRootDir, mergedRootDir, *quota, *sharedLower)
 		handler := volume.NewHandler(driver)
 		err := handler.ServeUnix("root", driver.name)
 		if err != nil {
@@ -0,0 +1,83 @@
+package main
+
+import (
+	"fmt"
+	"io/ioutil"
+	"os"
+	"path"
+	"path/filepath"
+	"sort"
+	"time"
+)
+
+type cacheUsage struct {
+	dir      string
+	size     int64
+	lastUsed time.Time
+}
+
+type byLastUsed []cacheUsage
+
+func (caches byLastUsed) Len() int           { return len(caches) }
+func (caches byLastUsed) Swap(i, j int)      { caches[i], caches[j] = caches[j], caches[i] }
+func (caches byLastUsed) Less(i, j int) bool { return caches[i].lastUsed.Before(caches[j].lastUsed) }
+
+// enforceQuota removes the least recently used caches that no build is using until all of them fit in quota bytes.
+// A cache's last use is the last time its state file was written, which happens on every mount and unmount.
+func enforceQuota(cacheLowerRootDir string, quota int64) error {
+	if quota <= 0 {
+		return nil
+	}
+	entries, err := ioutil.ReadDir(cacheLowerRootDir)
+	if err != nil {
+		return err
+	}
+	var caches []cacheUsage
+	var total int64
+	for _, entry := range entries {
+		if !entry.IsDir() {
+			continue
+		}
+		dir := path.Join(cacheLowerRootDir, entry.Name())
+		size, err := dirSize(dir)
+		if err != nil {
+			return err
+		}
+		lastUsed := entry.ModTime()
+		if stat, err := os.Stat(getStateFile(dir)); err == nil {
+			lastUsed = stat.ModTime()
+		}
+		caches = append(caches, cacheUsage{dir: dir, size: size, lastUsed: lastUsed})
+		total += size
+	}
+	sort.Sort(byLastUsed(caches))
+	for _, cache := range caches {
+		if total <= quota {
+			break
+		}
+		cacheState, err := getCacheState(cache.dir)
+		if err != nil || cacheState.inUse() {
+			continue
+		}
+		fmt.Println(fmt.Sprintf("Quota: evicting %s (%d bytes, last used %s)", cache.dir, cache.size, cache.lastUsed))
+		if err := os.RemoveAll(cache.dir); err != nil {
+			return err
+		}
+		total -= cache.size
+	}
+	return nil
+}
+
+func dirSize(dir string) (int64, error) {
+	var size int64
+	err := filepath.Walk(dir, func(_ string, info os.FileInfo, err error) error {
+		if err != nil {
+			return err
+		}
+		if !info.IsDir() {
+			size += info.Size()
+		}
+		return nil
+	})
+	return size, err
+}
@@ -0,0 +1,53 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.model.Slave;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the container command that starts the agent. When a cache dir is configured, each swarm node keeps the
+ * agent jar in a host directory under a name derived from the jar's hash, so it is downloaded once per node and
+ * version instead of once per container.
+ * <p>
+ * The cache dir is writable by every build on the node, so the cached jar is copied out of it and its sha256 checked
+ * against the master's before it runs; a jar that doesn't match is downloaded again.
+ */
+public class AgentJarCache {
+    private static final Logger LOGGER = Logger.getLogger(AgentJarCache.class.getName());
+    public static final String CONTAINER_PATH = "/var/cache/jenkins-agent";
+    private static final String DOWNLOAD = "curl --connect-timeout 20  --max-time 60 ";
+
+    private static volatile String agentJarHash;
+
+    public static String getAgentCommand(final String cacheDir, final String slaveJarUrl, final String slaveOptions) {
+        final String hash = StringUtils.isEmpty(cacheDir) ? null : getAgentJarHash();
+        if (hash == null) {
+            return DOWNLOAD + "-o slave.jar " + slaveJarUrl + " && java -jar slave.jar " + slaveOptions;
+        }
+        final String cachedJar = CONTAINER_PATH + "/slave-" + hash + ".jar";
+        return "CACHED=" + cachedJar + "; "
+                + "verified() { echo \"" + hash + "  slave.jar\" | sha256sum -c - >/dev/null 2>&1; }; "
+                + "{ cp $CACHED slave.jar 2>/dev/null && verified; } "
+                + "|| { " + DOWNLOAD + "--fail -o slave.jar " + slaveJarUrl + " && verified "
+                + "&& { cp slave.jar $CACHED.$$ && mv -f $CACHED.$$ $CACHED || true; }; } "
+                + "|| " + DOWNLOAD + "-o slave.jar " + slaveJarUrl + " "
+                + "&& java -jar slave.jar " + slaveOptions;
+    }
+
+    private static String getAgentJarHash() {
+        if (agentJarHash == null) {
+            try (InputStream jar = new Slave.JnlpJar("slave.jar").getURL().openStream()) {
+                agentJarHash = DigestUtils.sha256Hex(jar);
+            } catch (final IOException e) {
+                LOGGER.log(Level.INFO, "couldn't hash slave.jar, containers will download it", e);
+                return null;
+            }
+        }
+        return agentJarHash;
+    }
+}
@@ -1,6 +1,5 @@
 package suryagaddipati.jenkinsdockerslaves;
 
-import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.Node;
@@ -8,25 +7,50 @@ import hudson.model.Queue;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BuildScheduler {
+    private static final AtomicLong lastLabelId = new AtomicLong();
+
     public static void scheduleBuild(final Queue.BuildableItem bi) {
         try {
+            if (CircuitBreaker.DOCKER.isOpen()) {
+                markPending(bi); // picked up again when the circuit closes
+                return;
+            }
+            boolean reserved = false;
             if (bi.getAction(DockerLabelAssignmentAction.class) == null) {
+                if (!FairShare.admit(bi)) {
+                    markPending(bi);
+                    return;
+                }
+                final String warmSlave = WarmPool.claim(bi);
+                if (warmSlave != null) {
+                    bi.addAction(new DockerLabelAssignmentAction(new DockerMachineLabel(warmSlave)));
+                    Queue.getInstance().scheduleMaintenance();
+                    return;
+                }
+                if (!place(bi)) {
+                    FairShare.release(bi);
+                    markPending(bi);
+                    return;
+                }
+                reserved = true;
                 bi.addAction(createLabelAssignmentAction());
             }
             // Immediately create a slave for this item
             // Real provisioning will happen later
             final DockerLabelAssignmentAction action = bi.getAction(DockerLabelAssignmentAction.class);
+            final String name = action.getLabel().getName();
+            if (Jenkins.getInstance().getNode(name) != null || NodeRegistrar.isPending(name)) {
+                return; // slave for this item already exists, or is about to
+            }
+            if (!reserved && !place(bi)) {
+                return; // retried later, when capacity frees up
+            }
 
             final Node node = new DockerSlave(bi, action.getLabel().toString());
-            Computer.threadPoolForRemoting.submit((Runnable) () -> {
-                try {
-                    Jenkins.getInstance().addNode(node);
-                } catch (final IOException e) {
-//                        e.printStackTrace();
-                }
-            });
+            NodeRegistrar.register(node);
         } catch (final IOException e) {
             e.printStackTrace();
         } catch (final Descriptor.FormException e) {
@@ -34,16 +58,40 @@ public class BuildScheduler {
         }
     }
 
-    private static DockerLabelAssignmentAction createLabelAssignmentAction() {
-        try {
-            Thread.sleep(5, 10);
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
+    private static boolean place(final Queue.BuildableItem bi) {
+        final SwarmCapacity.Placement placement = SwarmCapacity.place(bi.task, getLabelConfiguration(bi));
+        if (placement == null) {
+            return false;
         }
+        markPending(bi);
+        final DockerSlaveInfo slaveInfo = bi.getAction(DockerSlaveInfo.class);
+        slaveInfo.setPlacement(placement);
+        final Label label = bi.task.getAssignedLabel();
+        if (label != null) {
+            slaveInfo.markQueued(label.getName(), bi.getInQueueSince());
+        }
+        return true;
+    }
+
+    private static LabelConfiguration getLabelConfiguration(final Queue.BuildableItem bi) {
+        final Label label = bi.task.getAssignedLabel();
+        return label == null ? null : DockerSlaveConfiguration.get().getLabelConfiguration(label.getName());
+    }
+
+    public static void markPending(final Queue.BuildableItem bi) {
+        // DockerSlaveInfo marks the item for the provisioning loop
+        if (bi.getAction(DockerSlaveInfo.class) == null) {
+            bi.replaceAction(new DockerSlaveInfo(false));
+        }
+    }
 
-        final String id = System.nanoTime() + "";
-        final Label label = new DockerMachineLabel(id);
+    private static DockerLabelAssignmentAction createLabelAssignmentAction() {
+        final Label label = new DockerMachineLabel(nextLabelId());
         return new DockerLabelAssignmentAction(label);
     }
 
+    public static String nextLabelId() {
+        return lastLabelId.updateAndGet(last -> Math.max(last + 1, System.nanoTime())) + "";
+    }
+
 }
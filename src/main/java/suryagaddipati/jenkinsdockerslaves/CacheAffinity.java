@@ -0,0 +1,148 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.XmlFile;
+import hudson.model.Queue;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Swarm nodes holding a warm cache volume for each job, most recent first, persisted in
+ * {@code docker-slaves-cache-affinity.xml}. A node is recorded when a build's cache volume is torn down there, which is
+ * when the cache driver keeps its changes. Launches count as hits when the container lands on one of the job's nodes.
+ */
+public class CacheAffinity {
+    private static final Logger LOGGER = Logger.getLogger(CacheAffinity.class.getName());
+    private static final int NODES = Integer.getInteger(CacheAffinity.class.getName() + ".nodes", 3);
+
+    private static CacheAffinity instance;
+
+    private Map<String, Locality> jobs = new ConcurrentHashMap<>();
+    private transient AtomicBoolean saveScheduled = new AtomicBoolean(false);
+
+    public static synchronized CacheAffinity get() {
+        if (instance == null) {
+            instance = new CacheAffinity();
+            final XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (final IOException e) {
+                    LOGGER.log(Level.INFO, "couldn't load " + file, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private Object readResolve() {
+        this.saveScheduled = new AtomicBoolean(false);
+        return this;
+    }
+
+    /**
+     * @return nodes with a warm cache for the task's job, most recently used first.
+     */
+    public static List<String> getWarmNodes(final Queue.Task task) {
+        final Locality locality = task == null ? null : get().jobs.get(ResourceHistory.getKey(task));
+        return locality == null ? new ArrayList<>() : locality.getNodes();
+    }
+
+    public static void recordTeardown(final Run run, final String node) {
+        if (node == null || node.isEmpty()) {
+            return;
+        }
+        get().update(ResourceHistory.getKey(run), locality -> locality.warm(node));
+    }
+
+    public static void recordLaunch(final Queue.Task task, final String node) {
+        get().update(ResourceHistory.getKey(task), locality -> locality.launched(node));
+    }
+
+    private void update(final String job, final Consumer<Locality> change) {
+        final Locality locality = this.jobs.computeIfAbsent(job, j -> new Locality());
+        synchronized (locality) {
+            change.accept(locality);
+        }
+        if (this.saveScheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(this::save, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return jobs by name, for the dashboard.
+     */
+    public Map<String, Locality> getJobs() {
+        return new TreeMap<>(this.jobs);
+    }
+
+    private void save() {
+        this.saveScheduled.set(false);
+        try {
+            getConfigFile().write(this);
+        } catch (final IOException e) {
+            LOGGER.log(Level.INFO, "couldn't save cache affinity", e);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getInstance().getRootDir(), "docker-slaves-cache-affinity.xml"));
+    }
+
+    /**
+     * Changed under its own lock. The node list is replaced rather than modified, so {@link #save()} can serialize it
+     * while launches update it.
+     */
+    public static class Locality {
+        private volatile List<String> nodes = new ArrayList<>();
+        private long launches;
+        private long hits;
+
+        private void warm(final String node) {
+            final List<String> warm = new ArrayList<>(NODES + 1);
+            warm.add(node);
+            for (final String other : this.nodes) {
+                if (!other.equals(node) && warm.size() < NODES) {
+                    warm.add(other);
+                }
+            }
+            this.nodes = warm;
+        }
+
+        private void launched(final String node) {
+            this.launches++;
+            if (this.nodes.contains(node)) {
+                this.hits++;
+            }
+        }
+
+        public synchronized List<String> getNodes() {
+            return new ArrayList<>(this.nodes);
+        }
+
+        public synchronized long getLaunches() {
+            return this.launches;
+        }
+
+        public synchronized long getHits() {
+            return this.hits;
+        }
+
+        public synchronized double getHitRate() {
+            return this.launches == 0 ? 0 : (double) this.hits / this.launches;
+        }
+    }
+}
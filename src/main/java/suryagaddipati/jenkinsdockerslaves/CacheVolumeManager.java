@@ -0,0 +1,82 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectVolumeResponse;
+import com.github.dockerjava.api.command.ListVolumesResponse;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes build cache volumes that no container uses any more, e.g. when a container was removed without its volumes.
+ * Removing a build volume lets the cache driver release its overlay dirs; the per-cache bases it keeps on each node are
+ * bounded by the driver's own quota and least recently used eviction.
+ */
+@Extension
+public class CacheVolumeManager extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(CacheVolumeManager.class.getName());
+    static final String DRIVER = "cache-driver";
+
+    private static final AtomicLong removed = new AtomicLong();
+
+    public CacheVolumeManager() {
+        super("Docker cache volume manager");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(Long.getLong(CacheVolumeManager.class.getName() + ".periodMinutes", 10));
+    }
+
+    /**
+     * @param cacheDir the cache dir, when a label has several and each needs its own cache.
+     * @return {@code <cache>-<slave>}; the driver splits on the dash, so neither part may contain one.
+     */
+    static String getVolumeName(final String job, final String cacheDir, final String slaveName) {
+        final String cache = cacheDir == null ? job : job + "__" + cacheDir.replaceAll("[^A-Za-z0-9_]", "_");
+        return cache + "-" + slaveName;
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) {
+        if (CircuitBreaker.DOCKER.isOpen()) {
+            return;
+        }
+        final Jenkins jenkins = Jenkins.getInstance();
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final DockerClient client = lease.getClient();
+            final ListVolumesResponse response = client.listVolumesCmd().withDanglingFilter(true).exec();
+            final List<InspectVolumeResponse> volumes = response.getVolumes();
+            if (volumes == null) {
+                return;
+            }
+            for (final InspectVolumeResponse volume : volumes) {
+                if (!DRIVER.equals(volume.getDriver())) {
+                    continue;
+                }
+                final String[] path = volume.getName().split("/"); // /<swarm node>/<name> through swarm
+                final String[] names = path[path.length - 1].split("-");
+                if (names.length == 2 && jenkins.getNode(names[1]) != null) {
+                    continue; // its container is still being created
+                }
+                try {
+                    client.removeVolumeCmd(volume.getName()).exec();
+                    removed.incrementAndGet();
+                } catch (final Exception e) {
+                    LOGGER.log(Level.FINE, "couldn't remove cache volume " + volume.getName(), e);
+                }
+            }
+        }
+    }
+
+    public static long getRemoved() {
+        return removed.get();
+    }
+}
@@ -0,0 +1,201 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.exception.DockerException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling the docker endpoint after {@link #failureThreshold} consecutive failures. While open, calls fail
+ * immediately with {@link OpenException}; once {@link #openMillis} have passed a single trial call is let through and
+ * only its outcome closes or re-opens the breaker, calls that were already in flight when it opened don't. Only
+ * connection errors, timeouts and server errors (5xx) count as failures; client errors (4xx), a full swarm and
+ * containers that exit with an error don't.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public static final CircuitBreaker DOCKER = new CircuitBreaker("docker",
+            Integer.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 5),
+            TimeUnit.SECONDS.toMillis(Long.getLong(CircuitBreaker.class.getName() + ".openSeconds", 30)));
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long opened;
+    private long calls;
+    private long trialCall;
+
+    public CircuitBreaker(final String name, final int failureThreshold, final long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> call, final Executor executor) {
+        final long ticket = acquire();
+        if (ticket == 0) {
+            final CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new OpenException(this.name));
+            return rejected;
+        }
+        final CompletableFuture<T> future = CompletableFuture.supplyAsync(call, executor);
+        future.whenComplete((result, error) -> {
+            if (error == null) {
+                onSuccess(ticket);
+            } else {
+                onFailure(ticket, error);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Makes the call on the current thread.
+     *
+     * @throws OpenException if the breaker is open.
+     */
+    public <T> T call(final Supplier<T> call) {
+        final long ticket = acquire();
+        if (ticket == 0) {
+            throw new OpenException(this.name);
+        }
+        try {
+            final T result = call.get();
+            onSuccess(ticket);
+            return result;
+        } catch (final RuntimeException e) {
+            onFailure(ticket, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return a ticket identifying the call, or 0 if it is rejected.
+     */
+    private synchronized long acquire() {
+        switch (this.state) {
+            case CLOSED:
+                return ++this.calls;
+            case OPEN:
+                if (System.currentTimeMillis() >= this.openUntil) {
+                    this.state = State.HALF_OPEN; // this caller is the trial
+                    this.trialCall = ++this.calls;
+                    return this.trialCall;
+                }
+                return 0;
+            default:
+                return 0; // trial in flight
+        }
+    }
+
+    /**
+     * @return true while calls are being rejected, i.e. new work should not be started.
+     */
+    public synchronized boolean isOpen() {
+        return this.state == State.OPEN && System.currentTimeMillis() < this.openUntil;
+    }
+
+    /**
+     * @return how long until the breaker lets a trial call through, 0 unless it is open.
+     */
+    public synchronized long getOpenMillisRemaining() {
+        return this.state == State.OPEN ? Math.max(0, this.openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    private void onSuccess(final long ticket) {
+        synchronized (this) {
+            if (this.state == State.CLOSED) {
+                this.consecutiveFailures = 0;
+                return;
+            }
+            if (this.state == State.OPEN || ticket != this.trialCall) {
+                return; // started before the breaker opened
+            }
+        }
+        close();
+    }
+
+    private void onFailure(final long ticket, final Throwable error) {
+        final boolean failure = countsAsFailure(error);
+        synchronized (this) {
+            if (this.state == State.HALF_OPEN && ticket == this.trialCall) {
+                if (failure) {
+                    open(error);
+                    return;
+                }
+            } else {
+                if (failure && this.state == State.CLOSED && ++this.consecutiveFailures >= this.failureThreshold) {
+                    this.opened = System.currentTimeMillis();
+                    open(error);
+                }
+                return;
+            }
+        }
+        close(); // the endpoint answered the trial
+    }
+
+    private void open(final Throwable error) {
+        this.state = State.OPEN;
+        this.openUntil = System.currentTimeMillis() + this.openMillis;
+        LOGGER.info(this.name + " circuit open after " + this.consecutiveFailures + " consecutive failures: " + error);
+    }
+
+    private void close() {
+        synchronized (this) {
+            this.state = State.CLOSED;
+            this.consecutiveFailures = 0;
+        }
+        LOGGER.info(this.name + " circuit closed after " + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - this.opened) + "s");
+        ProvisioningLoop.signal(this.name + " circuit closed");
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return this.consecutiveFailures;
+    }
+
+    static Throwable unwrap(final Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static boolean countsAsFailure(final Throwable error) {
+        final Throwable cause = unwrap(error);
+        if (cause instanceof DockerException) {
+            final DockerException dockerException = (DockerException) cause;
+            return dockerException.getHttpStatus() >= 500 && !isNoResourcesAvailable(dockerException);
+        }
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof IOException || t instanceof TimeoutException) {
+                return true; // couldn't connect, or the endpoint didn't answer in time
+            }
+        }
+        return false;
+    }
+
+    static boolean isNoResourcesAvailable(final Throwable error) {
+        final String message = error.getMessage();
+        return message != null && message.trim().contains("no resources available to schedule container");
+    }
+
+    public static class OpenException extends RuntimeException {
+        public OpenException(final String name) {
+            super(name + " circuit is open, not calling it");
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable view of the swarm nodes, the docker slaves running on each of them and the waiting queue, rebuilt by
+ * {@link SwarmCapacity#refresh()} from the same info call. Computers are indexed by swarm node name once per rebuild,
+ * so the dashboard never calls docker or walks every computer for every node.
+ * <p>
+ * Each section also carries the version at which its JSON last changed, so API clients can ask for changes only.
+ * Versions restart when Jenkins does, so clients see them as {@code <epoch>-<version>}, the epoch being when this
+ * class was loaded; a version from an earlier epoch gets every section.
+ */
+public class ClusterSnapshot {
+    private static final long EPOCH = System.currentTimeMillis();
+    private static final AtomicLong versions = new AtomicLong();
+    private static volatile ClusterSnapshot current = new ClusterSnapshot(Collections.emptyList(), Collections.emptyList(), "[]",
+            null, new JSONArray(), new JSONArray(), new JSONObject(), null);
+
+    private final List<SwarmDashboard.SwarmNode> nodes;
+    private final List<SwarmDashboard.SwarmQueueItem> queue;
+    private final String usage;
+    private final SwarmCapacity.Metrics placement;
+    private final Date built = new Date();
+    private final Section nodesJson;
+    private final Section queueJson;
+    private final Section usageJson;
+    private final Section placementJson;
+    private final long version;
+
+    private ClusterSnapshot(final List<SwarmDashboard.SwarmNode> nodes, final List<SwarmDashboard.SwarmQueueItem> queue, final String usage,
+                            final SwarmCapacity.Metrics placement, final JSONArray nodesJson, final JSONArray queueJson,
+                            final JSONObject usageJson, final ClusterSnapshot previous) {
+        this.nodes = nodes;
+        this.queue = queue;
+        this.usage = usage;
+        this.placement = placement;
+        final long next = versions.incrementAndGet();
+        this.nodesJson = Section.of(nodesJson, previous == null ? null : previous.nodesJson, next);
+        this.queueJson = Section.of(queueJson, previous == null ? null : previous.queueJson, next);
+        this.usageJson = Section.of(usageJson, previous == null ? null : previous.usageJson, next);
+        this.placementJson = Section.of(placement == null ? new JSONObject() : placement.toJson(), previous == null ? null : previous.placementJson, next);
+        this.version = Math.max(Math.max(this.nodesJson.version, this.queueJson.version), Math.max(this.usageJson.version, this.placementJson.version));
+    }
+
+    public static ClusterSnapshot get() {
+        return current;
+    }
+
+    static void rebuild(final List<SwarmCapacity.NodeCapacity> capacities) {
+        final Map<String, List<Run>> buildsByNode = new HashMap<>();
+        for (final Computer computer : Jenkins.getInstance().getComputers()) {
+            if (computer instanceof DockerComputer && ((DockerComputer) computer).getSwarmNodeName() != null) {
+                final List<Run> builds = buildsByNode.computeIfAbsent(((DockerComputer) computer).getSwarmNodeName().trim(), n -> new ArrayList<>());
+                final Queue.Executable build = ((DockerComputer) computer).getCurrentBuild();
+                builds.add(build instanceof Run ? (Run) build : null);
+            }
+        }
+
+        final List<SwarmDashboard.SwarmNode> nodes = new ArrayList<>(capacities.size());
+        final Map<String, Integer> usagePerJob = new LinkedHashMap<>();
+        int totalCpus = 0;
+        int totalReservedCpus = 0;
+        for (final SwarmCapacity.NodeCapacity capacity : capacities) {
+            final List<Run> onNode = buildsByNode.getOrDefault(capacity.getName(), Collections.emptyList());
+            final List<Run> builds = new ArrayList<>();
+            for (final Run build : onNode) {
+                if (build != null) {
+                    builds.add(build);
+                    final int reservedCpus = getReservedCPUs(build);
+                    totalReservedCpus += reservedCpus;
+                    usagePerJob.merge(getJobName(build), reservedCpus, Integer::sum);
+                }
+            }
+            totalCpus += capacity.getTotalCpus();
+            nodes.add(new SwarmDashboard.SwarmNode(capacity, onNode.size(), Collections.unmodifiableList(builds)));
+        }
+        usagePerJob.put("Available ", totalCpus - totalReservedCpus);
+
+        final List<Object> usage = new ArrayList<>();
+        usage.add(Arrays.asList("Job", "cpu"));
+        for (final Map.Entry<String, Integer> job : usagePerJob.entrySet()) {
+            usage.add(Arrays.asList(job.getKey() + " - " + job.getValue(), job.getValue()));
+        }
+        final JSONArray usageJson = new JSONArray();
+        usageJson.addAll(usage);
+
+        final List<SwarmDashboard.SwarmQueueItem> queue = collectQueue();
+        final JSONArray nodesJson = new JSONArray();
+        for (final SwarmDashboard.SwarmNode node : nodes) {
+            nodesJson.add(node.toJson());
+        }
+        final JSONArray queueJson = new JSONArray();
+        for (final SwarmDashboard.SwarmQueueItem item : queue) {
+            queueJson.add(item.toJson());
+        }
+        current = new ClusterSnapshot(Collections.unmodifiableList(nodes), Collections.unmodifiableList(queue), usageJson.toString(),
+                new SwarmCapacity.Metrics(capacities), nodesJson, queueJson, JSONObject.fromObject(usagePerJob), current);
+    }
+
+    private static List<SwarmDashboard.SwarmQueueItem> collectQueue() {
+        final List<SwarmDashboard.SwarmQueueItem> queue = new ArrayList<>();
+        final Queue.Item[] items = Jenkins.getInstance().getQueue().getItems();
+        for (int i = items.length - 1; i >= 0; i--) { //reverse order
+            final Queue.Item item = items[i];
+            final DockerSlaveInfo slaveInfo = item.getAction(DockerSlaveInfo.class);
+            if (slaveInfo != null && item instanceof Queue.BuildableItem && !slaveInfo.isProvisioningInProgress()) {
+                queue.add(new SwarmDashboard.SwarmQueueItem((Queue.BuildableItem) item));
+            }
+        }
+        return queue;
+    }
+
+    private static String getJobName(final Run build) {
+        final Job parent = build.getParent();
+        return (parent.getParent() instanceof Job ? (Job) parent.getParent() : parent).getFullDisplayName();
+    }
+
+    private static int getReservedCPUs(final Run build) {
+        final DockerSlaveInfo slaveInfo = (DockerSlaveInfo) build.getAction(DockerSlaveInfo.class);
+        return slaveInfo == null || slaveInfo.getCpuAllocation() == null ? 0 : slaveInfo.getCpuAllocation();
+    }
+
+    public List<SwarmDashboard.SwarmNode> getNodes() {
+        return this.nodes;
+    }
+
+    public List<SwarmDashboard.SwarmQueueItem> getQueue() {
+        return this.queue;
+    }
+
+    public String getUsage() {
+        return this.usage;
+    }
+
+    /**
+     * @return utilization and fragmentation of the swarm, or null before the first refresh.
+     */
+    public SwarmCapacity.Metrics getPlacement() {
+        return this.placement;
+    }
+
+    public Date getBuilt() {
+        return this.built;
+    }
+
+    public String getVersion() {
+        return EPOCH + "-" + this.version;
+    }
+
+    /**
+     * @param version a version returned by {@link #getVersion()}.
+     * @return its version number, or -1 if it is from an earlier epoch.
+     * @throws NumberFormatException if it isn't a version.
+     */
+    public static long parseVersion(final String version) {
+        final int dash = version.indexOf('-');
+        if (dash <= 0) {
+            throw new NumberFormatException(version);
+        }
+        final long epoch = Long.parseLong(version.substring(0, dash));
+        final long number = Long.parseLong(version.substring(dash + 1));
+        return epoch == EPOCH ? number : -1;
+    }
+
+    /**
+     * @return the sections that changed after {@code since}, or all of them when {@code since} is negative.
+     */
+    public JSONObject toJson(final long since) {
+        final JSONObject json = new JSONObject();
+        json.put("version", getVersion());
+        json.put("built", this.built.getTime());
+        if (this.nodesJson.version > since) {
+            json.put("nodes", this.nodesJson.json);
+        }
+        if (this.queueJson.version > since) {
+            json.put("queue", this.queueJson.json);
+        }
+        if (this.usageJson.version > since) {
+            json.put("usage", this.usageJson.json);
+        }
+        if (this.placementJson.version > since) {
+            json.put("placement", this.placementJson.json);
+        }
+        return json;
+    }
+
+    private static class Section {
+        private final Object json;
+        private final String text;
+        private final long version;
+
+        private Section(final Object json, final String text, final long version) {
+            this.json = json;
+            this.text = text;
+            this.version = version;
+        }
+
+        static Section of(final Object json, final Section previous, final long version) {
+            final String text = json.toString();
+            return previous != null && previous.text.equals(text) ? previous : new Section(json, text, version);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.core.command.EventsResultCallback;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Last known state of every container this master created, keyed by container id, so pages can show it without
+ * calling docker. Kept current by one container event subscription filtered on {@link OrphanReconciler#LABEL_MASTER};
+ * each tick re-lists the containers to catch missed events and re-subscribes if the stream has ended.
+ */
+@Extension
+public class ContainerStates extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(ContainerStates.class.getName());
+
+    public enum Status {CREATED, RUNNING, PAUSED, EXITED}
+
+    private static final Map<String, State> states = new ConcurrentHashMap<>();
+    private static volatile Subscription subscription;
+
+    public ContainerStates() {
+        super("Docker container state poller");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(Long.getLong(ContainerStates.class.getName() + ".periodSeconds", 60));
+    }
+
+    public static State get(final String containerId) {
+        return containerId == null ? null : states.get(containerId);
+    }
+
+    public static void update(final String containerId, final Status status) {
+        if (containerId == null) {
+            return;
+        }
+        states.compute(containerId, (id, state) -> new State(status, state != null && state.oomKilled));
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) {
+        if (CircuitBreaker.DOCKER.isOpen()) {
+            return;
+        }
+        final Subscription current = subscription;
+        if (current == null || current.ended) {
+            subscribe();
+        }
+        poll();
+    }
+
+    private static void poll() {
+        final List<Container> containers;
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            containers = lease.getClient().listContainersCmd()
+                    .withShowAll(true)
+                    .withLabelFilter(Collections.singletonMap(OrphanReconciler.LABEL_MASTER, Jenkins.getInstance().getLegacyInstanceId()))
+                    .exec();
+        }
+        final Map<String, State> listed = new ConcurrentHashMap<>();
+        for (final Container container : containers) {
+            final State known = states.get(container.getId());
+            listed.put(container.getId(), new State(parseStatus(container.getStatus()), known != null && known.oomKilled));
+        }
+        states.keySet().retainAll(listed.keySet());
+        states.putAll(listed);
+    }
+
+    /**
+     * Parses the human readable list status: "Created", "Up 2 minutes (Paused)", "Exited (137) 5 seconds ago".
+     */
+    static Status parseStatus(final String status) {
+        if (status == null || status.startsWith("Created")) {
+            return Status.CREATED;
+        }
+        if (status.startsWith("Up")) {
+            return status.contains("(Paused)") ? Status.PAUSED : Status.RUNNING;
+        }
+        return Status.EXITED;
+    }
+
+    private static void subscribe() {
+        final SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient();
+        final Subscription next = new Subscription(lease);
+        subscription = next;
+        try {
+            lease.getClient().eventsCmd()
+                    .withLabelFilter(Collections.singletonMap(OrphanReconciler.LABEL_MASTER, Jenkins.getInstance().getLegacyInstanceId()))
+                    .exec(next);
+        } catch (final RuntimeException e) {
+            next.end();
+            throw e;
+        }
+    }
+
+    private static void onEvent(final Event event) {
+        if (event.getId() == null || event.getStatus() == null) {
+            return;
+        }
+        switch (event.getStatus()) {
+            case "create":
+                update(event.getId(), Status.CREATED);
+                break;
+            case "start":
+            case "restart":
+            case "unpause":
+                update(event.getId(), Status.RUNNING);
+                break;
+            case "pause":
+                update(event.getId(), Status.PAUSED);
+                break;
+            case "die":
+                update(event.getId(), Status.EXITED);
+                break;
+            case "oom":
+                states.compute(event.getId(), (id, state) -> new State(state == null ? Status.RUNNING : state.status, true));
+                break;
+            case "destroy":
+                states.remove(event.getId());
+                break;
+            default:
+        }
+    }
+
+    private static class Subscription extends EventsResultCallback {
+        private final SharedDockerClient.Lease lease;
+        private volatile boolean ended;
+
+        Subscription(final SharedDockerClient.Lease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public void onNext(final Event event) {
+            onEvent(event);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            LOGGER.log(Level.FINE, "container event stream failed", throwable);
+            end();
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            end();
+            super.onComplete();
+        }
+
+        private void end() {
+            this.ended = true;
+            this.lease.close();
+        }
+    }
+
+    public static class State {
+        private final Status status;
+        private final boolean oomKilled;
+        private final long updated = System.currentTimeMillis();
+
+        State(final Status status, final boolean oomKilled) {
+            this.status = status;
+            this.oomKilled = oomKilled;
+        }
+
+        public Status getStatus() {
+            return this.status;
+        }
+
+        public boolean isOomKilled() {
+            return this.oomKilled;
+        }
+
+        public long getUpdated() {
+            return this.updated;
+        }
+
+        @Override
+        public String toString() {
+            return this.status.name().toLowerCase() + (this.oomKilled ? " (out of memory)" : "");
+        }
+    }
+}
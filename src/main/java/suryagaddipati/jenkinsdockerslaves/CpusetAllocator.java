@@ -0,0 +1,213 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Container;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out exclusive cpu ranges on swarm nodes for labels in cpuset mode. A range that fits inside one NUMA node is
+ * preferred, and its memory node is pinned with it. Ranges are freed once their slave is gone.
+ * <p>
+ * Every pinned container carries its range in {@link #LABEL_CPUSET}. The ranges of running containers are re-read
+ * from their labels on every {@link OrphanReconciler} pass, and before the first allocation after a restart, so ranges
+ * still held by containers of a previous run are not handed out again.
+ */
+public class CpusetAllocator {
+    private static final Logger LOGGER = Logger.getLogger(CpusetAllocator.class.getName());
+    public static final String LABEL_CPUSET = "jenkins-docker-slaves.cpuset";
+
+    private static final Map<String, Pin> pins = new HashMap<>();
+    private static Map<String, Pin> running;
+
+    /**
+     * @return healthy swarm nodes with {@code cpus} free cpus in a row, those with a range inside one NUMA node first.
+     */
+    public static synchronized List<String> getCandidates(final int cpus, final int cpusPerNumaNode) {
+        final List<String> local = new ArrayList<>();
+        final List<String> spanning = new ArrayList<>();
+        final SwarmCapacity capacity = SwarmCapacity.get();
+        if (capacity == null || !listRunning()) {
+            return local;
+        }
+        prune();
+        final Map<String, BitSet> used = getUsed();
+        for (final SwarmCapacity.NodeCapacity node : capacity.getNodes()) {
+            if (!node.isHealthy()) {
+                continue;
+            }
+            final Pin pin = find(node.getName(), node.getTotalCpus(), used, cpus, cpusPerNumaNode);
+            if (pin != null) {
+                (cpusPerNumaNode <= 0 || pin.isNumaLocal() ? local : spanning).add(node.getName());
+            }
+        }
+        local.addAll(spanning);
+        return local;
+    }
+
+    /**
+     * @param node the node {@link SwarmCapacity} reserved the build's cpus and memory on.
+     * @return the pin for this slave, or null if the node no longer has {@code cpus} free cpus in a row.
+     */
+    public static synchronized Pin allocate(final String slaveName, final String node, final int cpus, final int cpusPerNumaNode) {
+        final SwarmCapacity capacity = SwarmCapacity.get();
+        if (capacity == null || node == null || !listRunning()) {
+            return null;
+        }
+        prune();
+        for (final SwarmCapacity.NodeCapacity nodeCapacity : capacity.getNodes()) {
+            if (nodeCapacity.getName().equals(node)) {
+                final Pin pin = find(node, nodeCapacity.getTotalCpus(), getUsed(), cpus, cpusPerNumaNode);
+                if (pin != null) {
+                    pins.put(slaveName, pin);
+                }
+                return pin;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of {@link #LABEL_CPUSET} for the slave's container, or null if it isn't pinned.
+     */
+    public static synchronized String getContainerLabel(final String slaveName) {
+        final Pin pin = pins.get(slaveName);
+        return pin == null ? null : pin.node + ":" + pin.getCpus();
+    }
+
+    /**
+     * Replaces the ranges held by running containers with the ones listed.
+     */
+    public static synchronized void sync(final Collection<Container> containers) {
+        final Map<String, Pin> listed = new HashMap<>();
+        for (final Container container : containers) {
+            final String label = container.getLabels() == null ? null : container.getLabels().get(LABEL_CPUSET);
+            if (label == null || ContainerStates.parseStatus(container.getStatus()) == ContainerStates.Status.EXITED) {
+                continue;
+            }
+            final Pin pin = Pin.parse(label);
+            if (pin != null) {
+                final String[] path = container.getNames()[0].split("/"); // /<swarm node>/<computer name>
+                listed.put(path[path.length - 1], pin);
+            }
+        }
+        running = listed;
+    }
+
+    private static boolean listRunning() {
+        if (running != null) {
+            return true;
+        }
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            sync(lease.getClient().listContainersCmd()
+                    .withLabelFilter(Collections.singletonMap(OrphanReconciler.LABEL_MASTER, Jenkins.getInstance().getLegacyInstanceId()))
+                    .exec());
+            return true;
+        } catch (final Exception e) {
+            LOGGER.log(Level.INFO, "couldn't list pinned containers, not pinning until they are known", e);
+            return false;
+        }
+    }
+
+    private static Pin find(final String node, final int totalCpus, final Map<String, BitSet> used, final int cpus, final int cpusPerNumaNode) {
+        final BitSet nodeUsed = used.getOrDefault(node, new BitSet());
+        Pin spanning = null;
+        for (int start = nodeUsed.nextClearBit(0); start + cpus <= totalCpus; start = nodeUsed.nextClearBit(start + 1)) {
+            if (nodeUsed.get(start, start + cpus).isEmpty()) {
+                final Pin pin = new Pin(node, start, cpus, cpusPerNumaNode);
+                if (cpusPerNumaNode <= 0 || pin.isNumaLocal()) {
+                    return pin;
+                }
+                if (spanning == null) {
+                    spanning = pin;
+                }
+            }
+        }
+        return spanning;
+    }
+
+    private static Map<String, BitSet> getUsed() {
+        final List<Pin> held = new ArrayList<>(pins.values());
+        held.addAll(running.values());
+        final Map<String, BitSet> used = new HashMap<>();
+        for (final Pin pin : held) {
+            used.computeIfAbsent(pin.node, n -> new BitSet()).set(pin.first, pin.first + pin.count);
+        }
+        return used;
+    }
+
+    private static void prune() {
+        final Jenkins jenkins = Jenkins.getInstance();
+        for (final Iterator<Map.Entry<String, Pin>> it = pins.entrySet().iterator(); it.hasNext(); ) {
+            final String slaveName = it.next().getKey();
+            if (jenkins.getNode(slaveName) == null && !running.containsKey(slaveName)) {
+                it.remove();
+            }
+        }
+    }
+
+    public static class Pin {
+        private final String node;
+        private final int first;
+        private final int count;
+        private final int cpusPerNumaNode;
+
+        Pin(final String node, final int first, final int count, final int cpusPerNumaNode) {
+            this.node = node;
+            this.first = first;
+            this.count = count;
+            this.cpusPerNumaNode = cpusPerNumaNode;
+        }
+
+        /**
+         * @param label {@code <node>:<first>-<last>} or {@code <node>:<cpu>}.
+         */
+        static Pin parse(final String label) {
+            final int colon = label.lastIndexOf(':');
+            if (colon <= 0) {
+                return null;
+            }
+            try {
+                final String[] range = label.substring(colon + 1).split("-");
+                final int first = Integer.parseInt(range[0]);
+                final int last = range.length > 1 ? Integer.parseInt(range[1]) : first;
+                return last < first ? null : new Pin(label.substring(0, colon), first, last - first + 1, 0);
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+        }
+
+        boolean isNumaLocal() {
+            return this.first / this.cpusPerNumaNode == (this.first + this.count - 1) / this.cpusPerNumaNode;
+        }
+
+        public String getNode() {
+            return this.node;
+        }
+
+        public String getCpus() {
+            return this.count == 1 ? String.valueOf(this.first) : this.first + "-" + (this.first + this.count - 1);
+        }
+
+        /**
+         * @return NUMA nodes the cpus belong to, or null when the layout isn't configured.
+         */
+        public String getMems() {
+            if (this.cpusPerNumaNode <= 0) {
+                return null;
+            }
+            final int firstMem = this.first / this.cpusPerNumaNode;
+            final int lastMem = (this.first + this.count - 1) / this.cpusPerNumaNode;
+            return firstMem == lastMem ? String.valueOf(firstMem) : firstMem + "-" + lastMem;
+        }
+    }
+}
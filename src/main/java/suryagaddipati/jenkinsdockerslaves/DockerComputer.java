@@ -25,10 +25,6 @@
 
 package suryagaddipati.jenkinsdockerslaves;
 
-import com.github.dockerjava.api.DockerClient;
-import com.github.dockerjava.api.command.InspectContainerResponse;
-import com.github.dockerjava.api.exception.NotFoundException;
-import com.github.dockerjava.api.model.Statistics;
 import com.google.common.collect.Iterables;
 import hudson.model.Executor;
 import hudson.model.Queue;
@@ -43,12 +39,9 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.logging.Level;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
-import static suryagaddipati.jenkinsdockerslaves.ExceptionHandlingHelpers.executeSliently;
 import static suryagaddipati.jenkinsdockerslaves.ExceptionHandlingHelpers.executeSlientlyWithLogging;
 
 public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
@@ -57,6 +50,8 @@ public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
     private String containerId;
     private String swarmNodeName;
     private PrintStream log;
+    private final CompletableFuture<Void> connected = new CompletableFuture<>();
+    private final long created = System.currentTimeMillis();
 
 
     public DockerComputer(final DockerSlave dockerSlave) {
@@ -80,6 +75,10 @@ public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
         return null;
     }
 
+    public long getCreated() {
+        return this.created;
+    }
+
     public String getContainerId() {
         return this.containerId;
     }
@@ -94,14 +93,8 @@ public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
     }
 
     public void destroyContainer(final PrintStream logger) {
-        final ExecutorService threadPool = Executors.newSingleThreadExecutor();
-        threadPool.submit((Runnable) () -> {
-            try {
-                collectStatsAndCleanupDockerContainer(getContainerId(), logger);
-            } catch (final IOException e) {
-                LOGGER.log(Level.INFO, "couldn't cleanup container ", e);
-            }
-        });
+        final Queue.Executable currentBuild = getCurrentBuild();
+        Reaper.get().submit(this, currentBuild instanceof Run ? (Run) currentBuild : null, logger);
         setAcceptingTasks(false);
     }
 
@@ -119,54 +112,33 @@ public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
                 }
             }
         });
+        final DockerSlaveInfo slaveInfo = getSlaveInfo();
+        if (slaveInfo != null) {
+            slaveInfo.markPhase(LaunchTimings.Phase.CONNECT); // before the computer goes online and can pick up the build
+        }
         super.setChannel(channel, launchLog, listener);
+        this.connected.complete(null);
     }
 
-    private void cleanupNode(final PrintStream logger) throws IOException, InterruptedException {
-        if (getNode() != null) {
-            logger.println("Removing node " + getNode().getDisplayName());
-            getNode().terminate();
-        }
+    /**
+     * @return the info of the build or warm slave this computer was launched for, null before its launch.
+     */
+    public DockerSlaveInfo getSlaveInfo() {
+        final DockerSlave node = getNode();
+        return node != null && node.getLauncher() instanceof DockerComputerLauncher ? ((DockerComputerLauncher) node.getLauncher()).getSlaveInfo() : null;
     }
 
-
-    private void gatherStats(final DockerClient dockerClient) throws IOException {
-        final String containerId = getContainerId();
-        final Queue.Executable currentExecutable = getExecutors().get(0).getCurrentExecutable();
-        if (currentExecutable instanceof Run && ((Run) currentExecutable).getAction(DockerSlaveInfo.class) != null) {
-            final Run run = ((Run) currentExecutable);
-            final DockerSlaveInfo slaveInfo = ((Run) currentExecutable).getAction(DockerSlaveInfo.class);
-            final Statistics stats = dockerClient.statsCmd(containerId).exec();
-            slaveInfo.setStats(stats);
-            run.save();
-        }
+    public CompletableFuture<Void> getConnected() {
+        return this.connected;
     }
 
-    public void collectStatsAndCleanupDockerContainer(final String containerId, final PrintStream logger) throws IOException {
-
-        final DockerSlaveConfiguration configuration = DockerSlaveConfiguration.get();
-        try (DockerClient dockerClient = configuration.newDockerClient()) {
-            if (containerId != null) {
-                try {
-                    final InspectContainerResponse container = dockerClient.inspectContainerCmd(containerId).exec();
-                    executeSlientlyWithLogging(() -> gatherStats(dockerClient), logger); // No big deal if we can't get stats
-                    if (container.getState().getPaused()) {
-                        executeSlientlyWithLogging(() -> dockerClient.unpauseContainerCmd(containerId).exec(), logger);
-                    }
-                    executeSliently(() -> dockerClient.killContainerCmd(containerId).exec());
-                    executeSlientlyWithLogging(() -> removeContainer(logger, containerId, dockerClient), logger);
-                } catch (final NotFoundException e) {
-                    //Ignore if container is already gone
-                }
-
-            }
+    private void cleanupNode(final PrintStream logger) throws IOException, InterruptedException {
+        if (getNode() != null) {
+            logger.println("Removing node " + getNode().getDisplayName());
+            getNode().terminate();
         }
     }
 
-    private void removeContainer(final PrintStream logger, final String containerId, final DockerClient dockerClient) {
-        ExceptionHandlingHelpers.executeWithRetryOnError(() -> dockerClient.removeContainerCmd(containerId).withForce(true).exec());
-        logger.println("Removed Container " + containerId);
-    }
 
     @Override
     public void recordTermination() {
@@ -174,7 +146,7 @@ public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
     }
 
     public void delete() {
-        executeSlientlyWithLogging(() -> collectStatsAndCleanupDockerContainer(getContainerId(), System.out), System.out); // Maybe be container was created, so attempt to delete it
+        Reaper.get().submit(this, null, System.out); // Maybe be container was created, so attempt to delete it
         executeSlientlyWithLogging(() -> {
             if (getChannel() != null) getChannel().close();
         }, System.out);
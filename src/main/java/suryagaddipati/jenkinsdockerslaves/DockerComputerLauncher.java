@@ -3,8 +3,6 @@ package suryagaddipati.jenkinsdockerslaves;
 
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.CreateContainerCmd;
-import com.github.dockerjava.api.command.CreateContainerResponse;
-import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.github.dockerjava.api.exception.InternalServerErrorException;
 import com.github.dockerjava.api.model.Bind;
 import com.github.dockerjava.api.model.Volume;
@@ -12,19 +10,28 @@ import com.github.dockerjava.core.command.WaitContainerResultCallback;
 import hudson.model.AbstractProject;
 import hudson.model.Computer;
 import hudson.model.Queue;
-import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.SlaveComputer;
+import jenkins.util.Timer;
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
+import suryagaddipati.jenkinsdockerslaves.LaunchPipeline.Stage;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DockerComputerLauncher extends ComputerLauncher {
 
     private static final Logger LOGGER = Logger.getLogger(DockerComputerLauncher.class.getName());
+    private static final int CPU_PERIOD = 100000; // microseconds, the kernel default
     private final String label;
 
 
@@ -33,11 +40,26 @@ public class DockerComputerLauncher extends ComputerLauncher {
 
     private final Queue.BuildableItem bi;
 
+    private DockerSlaveInfo warmSlaveInfo;
+
+    private final SwarmCapacity.Placement warmPlacement;
+
 
     public DockerComputerLauncher(final Queue.BuildableItem bi) {
         this.bi = bi;
         this.label = bi.task.getAssignedLabel().getName();
         this.jobName = bi.task instanceof AbstractProject ? ((AbstractProject) bi.task).getFullName() : bi.task.getName();
+        this.warmPlacement = null;
+    }
+
+    /**
+     * Launcher for a {@link WarmPool} slave, which is started before any queue item is assigned to it.
+     */
+    public DockerComputerLauncher(final String label, final SwarmCapacity.Placement placement) {
+        this.bi = null;
+        this.label = label;
+        this.jobName = null;
+        this.warmPlacement = placement;
     }
 
     @Override
@@ -51,135 +73,235 @@ public class DockerComputerLauncher extends ComputerLauncher {
 
     private void launch(final DockerComputer computer, final TaskListener listener) throws IOException, InterruptedException {
         DockerSlaveInfo dockerSlaveInfo = null;
+        int attempt = 0;
+        SharedDockerClient.Lease lease = null;
         try {
-            setToInProgress(this.bi);
-            dockerSlaveInfo = this.bi.getAction(DockerSlaveInfo.class);
+            dockerSlaveInfo = attachSlaveInfo();
+            attempt = dockerSlaveInfo.startLaunch();
             dockerSlaveInfo.setComputerLaunchTime(new Date());
+            dockerSlaveInfo.markPhase(LaunchTimings.Phase.REGISTRATION);
             final DockerSlaveConfiguration configuration = DockerSlaveConfiguration.get();
-            if (this.bi.task instanceof AbstractProject) {
+            if (this.bi != null && this.bi.task instanceof AbstractProject) {
                 ((AbstractProject) this.bi.task).setCustomWorkspace(configuration.getBaseWorkspaceLocation());
             }
-            try (DockerClient dockerClient = configuration.newDockerClient()) {
-                final LabelConfiguration labelConfiguration = configuration.getLabelConfiguration(this.label);
-
-                final String[] envVarOptions = labelConfiguration.getEnvVarsConfig();
-                final String[] envVars = new String[envVarOptions.length];
-                if (envVarOptions.length != 0) {
-                    System.arraycopy(envVarOptions, 0, envVars, 0, envVarOptions.length);
-                }
-
-                final String additionalSlaveOptions = "-noReconnect";
-                final String slaveOptions = "-jnlpUrl " + getSlaveJnlpUrl(computer, configuration) + " -secret " + getSlaveSecret(computer) + " " + additionalSlaveOptions;
-                final String[] command = new String[]{"sh", "-c", "curl --connect-timeout 20  --max-time 60 -o slave.jar " + getSlaveJarUrl(configuration) + " && java -jar slave.jar " + slaveOptions};
-
-
-                final CreateContainerCmd containerCmd = dockerClient
-                        .createContainerCmd(labelConfiguration.getImage())
-                        .withCmd(command)
-                        .withPrivileged(configuration.isPrivileged())
-                        .withName(computer.getName())
-                        .withEnv(envVars);
-
-                final String[] bindOptions = labelConfiguration.getHostBindsConfig();
-                final String[] cacheDirs = labelConfiguration.getCacheDirs();
-                final Bind[] binds = new Bind[bindOptions.length + cacheDirs.length];
-                if (bindOptions.length != 0) {
-                    for (int i = 0; i < bindOptions.length; i++) {
-                        final String[] bindConfig = bindOptions[i].split(":");
-                        binds[i] = new Bind(bindConfig[0], new Volume(bindConfig[1]));
-                    }
-                }
-
-                createCacheBindings(listener, containerCmd, computer, cacheDirs, binds);
-                containerCmd.withBinds(binds);
-
-
-                setCgroupLimits(labelConfiguration, containerCmd, dockerSlaveInfo);
-
-                listener.getLogger().println("Creating Container :" + containerCmd.toString());
-                final CreateContainerResponse container = containerCmd.exec();
-                listener.getLogger().println("Created container :" + container.getId());
-                computer.setContainerId(container.getId());
-
-                final WaitContainerResultCallback createResponse = new WaitContainerResultCallback();
-                dockerClient.waitContainerCmd(container.getId()).exec(createResponse);
-                final Integer createStatusCode = createResponse.awaitStatusCode();
-                if (createStatusCode != 0) {
-                    throw new RuntimeException("Container creation failed with error code: " + createStatusCode);
-                }
-
-
-                final InspectContainerResponse[] containerInfo = {null};
-                ExceptionHandlingHelpers.executeWithRetryOnError(() -> containerInfo[0] = dockerClient.inspectContainerCmd(container.getId()).exec());
-                computer.setNodeName(containerInfo[0].getNode().getName());
-                dockerSlaveInfo.setContainerInfo(containerInfo[0]);
+            lease = configuration.leaseDockerClient();
+            final DockerClient dockerClient = lease.getClient();
+            final LaunchTemplate template = configuration.getLaunchTemplate(this.label);
+            final LabelConfiguration labelConfiguration = template.getLabelConfiguration();
+
+            final String additionalSlaveOptions = "-noReconnect";
+            final String slaveOptions = "-jnlpUrl " + getSlaveJnlpUrl(computer, configuration) + " -secret " + getSlaveSecret(computer) + " " + additionalSlaveOptions;
+            final String agentJarCacheDir = configuration.getAgentJarCacheDir();
+            final String[] command = new String[]{"sh", "-c", AgentJarCache.getAgentCommand(agentJarCacheDir, getSlaveJarUrl(configuration), slaveOptions)};
+
+
+            final CreateContainerCmd containerCmd = template.stamp(dockerClient
+                    .createContainerCmd(template.getImage())
+                    .withCmd(command)
+                    .withPrivileged(configuration.isPrivileged())
+                    .withName(computer.getName()));
+
+            final boolean cacheAgentJar = !StringUtils.isEmpty(agentJarCacheDir);
+            final Bind[] binds = template.getBinds(cacheAgentJar ? 1 : 0);
+            if (cacheAgentJar) {
+                binds[template.getHostBindCount()] = new Bind(agentJarCacheDir, new Volume(AgentJarCache.CONTAINER_PATH));
+            }
+            containerCmd.withBinds((Bind[]) ArrayUtils.addAll(binds, createCacheBindings(listener, containerCmd, computer, template.getCacheDirs(), dockerSlaveInfo)));
 
-                dockerClient.startContainerCmd(container.getId()).exec();
-                dockerSlaveInfo.setProvisionedTime(new Date());
-                dockerSlaveInfo.setDockerImage(labelConfiguration.getImage());
 
-                computer.connect(false).get();
+            setCgroupLimits(template, containerCmd, computer, listener, dockerSlaveInfo);
+            final Map<String, String> containerLabels = OrphanReconciler.getContainerLabels(dockerSlaveInfo.getAllocatedCPUShares(), dockerSlaveInfo.getMemoryReservation());
+            final String cpusetLabel = CpusetAllocator.getContainerLabel(computer.getName());
+            if (cpusetLabel != null) {
+                containerLabels.put(CpusetAllocator.LABEL_CPUSET, cpusetLabel);
             }
-
+            containerCmd.withLabels(containerLabels);
+
+            listener.getLogger().println("Creating Container :" + containerCmd.toString());
+            final DockerSlaveInfo slaveInfo = dockerSlaveInfo;
+            final int launchAttempt = attempt;
+            final SharedDockerClient.Lease clientLease = lease;
+            LaunchPipeline.run(Stage.CREATE, containerCmd::exec, late -> {
+                        listener.getLogger().println("Removing container created after the create timed out: " + late.getId());
+                        Reaper.get().submit(late.getId(), "", null, listener.getLogger());
+                    })
+                    .thenCompose(container -> {
+                        slaveInfo.markPhase(LaunchTimings.Phase.CREATE);
+                        listener.getLogger().println("Created container :" + container.getId());
+                        computer.setContainerId(container.getId());
+                        return LaunchPipeline.run(Stage.WAIT, () -> awaitCreation(dockerClient, container.getId()));
+                    })
+                    .thenCompose(containerId -> LaunchPipeline.runWithRetry(Stage.INSPECT, () -> dockerClient.inspectContainerCmd(containerId).exec()))
+                    .thenCompose(containerInfo -> {
+                        slaveInfo.markPhase(LaunchTimings.Phase.INSPECT);
+                        computer.setNodeName(containerInfo.getNode().getName());
+                        if (this.bi != null && template.getCacheDirs().length > 0) {
+                            CacheAffinity.recordLaunch(this.bi.task, containerInfo.getNode().getName());
+                        }
+                        slaveInfo.setContainerInfo(containerInfo);
+                        return LaunchPipeline.run(Stage.START, () -> dockerClient.startContainerCmd(containerInfo.getId()).exec());
+                    })
+                    .thenCompose(started -> {
+                        slaveInfo.markPhase(LaunchTimings.Phase.START);
+                        ContainerStates.update(computer.getContainerId(), ContainerStates.Status.RUNNING);
+                        slaveInfo.setProvisionedTime(new Date());
+                        slaveInfo.setDockerImage(labelConfiguration.getImage());
+                        return LaunchPipeline.withTimeout(computer.getConnected(), Stage.CONNECT);
+                    })
+                    .whenComplete((connected, error) -> {
+                        clientLease.close();
+                        if (!slaveInfo.isCurrentLaunch(launchAttempt)) {
+                            LOGGER.fine("Ignoring completion of superseded launch of " + computer.getName());
+                            return;
+                        }
+                        if (error != null) {
+                            slaveInfo.finishLaunch(launchAttempt); // before the retry is signalled
+                            onLaunchFailure(computer, slaveInfo, error instanceof CompletionException ? error.getCause() : error);
+                        } else {
+                            LaunchLatency.record(this.label, System.currentTimeMillis() - slaveInfo.getComputerLaunchTime().getTime());
+                            slaveInfo.finishLaunch(launchAttempt);
+                        }
+                    });
         } catch (final Throwable e) {
-            final String build = this.bi.task.getFullDisplayName();
-            if (noResourcesAvailable(e)) {
-                LOGGER.info("Not resources available for :" + build);
-            } else {
-                LOGGER.log(Level.INFO, "Failed to schedule: " + build, e);
-                dockerSlaveInfo.incrementProvisioningAttemptCount();
+            if (lease != null) {
+                lease.close();
             }
-            computer.delete();
-            throw new RuntimeException(e);
-        } finally {
-            if (dockerSlaveInfo != null) {
-                dockerSlaveInfo.setProvisioningInProgress(false);
+            if (dockerSlaveInfo == null || dockerSlaveInfo.finishLaunch(attempt)) {
+                onLaunchFailure(computer, dockerSlaveInfo, e);
             }
+            throw new RuntimeException(e);
         }
     }
 
-    private void setCgroupLimits(final LabelConfiguration labelConfiguration, final CreateContainerCmd containerCmd, final DockerSlaveInfo dockerSlaveInfo) {
-        Integer cpuAllocation = labelConfiguration.getMaxCpuShares();
-        Long memoryAllocation = labelConfiguration.getMaxMemory();
+    private String awaitCreation(final DockerClient dockerClient, final String containerId) {
+        try (WaitContainerResultCallback createResponse = dockerClient.waitContainerCmd(containerId).exec(new WaitContainerResultCallback())) {
+            final Integer createStatusCode = createResponse.awaitStatusCode(Stage.WAIT.getTimeoutSeconds(), TimeUnit.SECONDS);
+            if (createStatusCode != 0) {
+                throw new RuntimeException("Container creation failed with error code: " + createStatusCode);
+            }
+            return containerId;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        if (labelConfiguration.isDynamicResourceAllocation()) {
-            final Run lastSuccessfulBuild = null; //job.getLastSuccessfulBuild();
-            if (lastSuccessfulBuild != null && lastSuccessfulBuild.getAction(DockerSlaveInfo.class) != null) {
-                final DockerSlaveInfo lastSuccessfulSlaveInfo = lastSuccessfulBuild.getAction(DockerSlaveInfo.class);
-                cpuAllocation = Math.min(labelConfiguration.getMaxCpuShares(), lastSuccessfulSlaveInfo.getNextCpuAllocation());
-                memoryAllocation = Math.min(labelConfiguration.getMaxMemory(), lastSuccessfulSlaveInfo.getNextMemoryAllocation());
+    private void onLaunchFailure(final DockerComputer computer, final DockerSlaveInfo dockerSlaveInfo, final Throwable e) {
+        final String build = this.bi == null ? "warm slave for " + this.label : this.bi.task.getFullDisplayName();
+        if (noResourcesAvailable(e)) {
+            LOGGER.info("Not resources available for :" + build);
+            SwarmCapacity.refreshSoon();
+        } else if (e instanceof CircuitBreaker.OpenException) {
+            LOGGER.info("Docker unavailable, not launching: " + build);
+        } else {
+            if (e instanceof TimeoutException && dockerSlaveInfo != null && dockerSlaveInfo.getComputerLaunchTime() != null) {
+                LaunchLatency.recordTimeout(this.label, System.currentTimeMillis() - dockerSlaveInfo.getComputerLaunchTime().getTime());
+            }
+            LOGGER.log(Level.INFO, "Failed to schedule: " + build, e);
+            if (dockerSlaveInfo != null) {
+                dockerSlaveInfo.incrementProvisioningAttemptCount();
             }
         }
+        Computer.threadPoolForRemoting.submit(() -> {
+            computer.delete();
+            retry(e);
+        });
+    }
+
+    private static void retry(final Throwable e) {
+        if (e instanceof CircuitBreaker.OpenException) {
+            // nothing can launch before the trial call, which signals when it closes the circuit
+            Timer.get().schedule(() -> ProvisioningLoop.signal("docker circuit half open"),
+                    CircuitBreaker.DOCKER.getOpenMillisRemaining(), TimeUnit.MILLISECONDS);
+        } else {
+            ProvisioningLoop.signal("launch failed");
+        }
+    }
+
+    private void setCgroupLimits(final LaunchTemplate template, final CreateContainerCmd containerCmd, final DockerComputer computer, final TaskListener listener, final DockerSlaveInfo dockerSlaveInfo) {
+        final LabelConfiguration labelConfiguration = template.getLabelConfiguration();
+        final ResourceHistory.Allocation allocation = ResourceHistory.allocate(this.bi == null ? null : this.bi.task, template);
+        final Integer cpuAllocation = allocation.getCpus();
+        final Long memoryAllocation = allocation.getMemory();
         containerCmd.withCpuShares(cpuAllocation);
         containerCmd.withMemory(memoryAllocation);
         dockerSlaveInfo.setAllocatedCPUShares(cpuAllocation);
         dockerSlaveInfo.setAllocatedMemory(memoryAllocation);
 
+        String cpuLimitMode = labelConfiguration.getCpuLimitMode();
+        if (LabelConfiguration.CPU_CPUSET.equals(cpuLimitMode)) {
+            final CpusetAllocator.Pin pin = CpusetAllocator.allocate(computer.getName(), dockerSlaveInfo.getPlacementNode(), cpuAllocation, labelConfiguration.getCpusPerNumaNode());
+            if (pin != null) {
+                containerCmd.withCpusetCpus(pin.getCpus());
+                if (pin.getMems() != null) {
+                    containerCmd.withCpusetMems(pin.getMems());
+                }
+                containerCmd.withEnv(ArrayUtils.add(containerCmd.getEnv(), "constraint:node==" + pin.getNode()));
+                dockerSlaveInfo.setCpuset(pin.getCpus(), pin.getMems());
+            } else {
+                listener.getLogger().println("No free range of " + cpuAllocation + " cpus on the reserved node, limiting by quota instead");
+                cpuLimitMode = LabelConfiguration.CPU_QUOTA;
+            }
+        }
+        if (!LabelConfiguration.CPU_CPUSET.equals(cpuLimitMode) && dockerSlaveInfo.getPlacementNode() != null) {
+            containerCmd.withEnv(ArrayUtils.add(containerCmd.getEnv(), dockerSlaveInfo.getPlacementConstraint()));
+            listener.getLogger().println("Placing container on " + dockerSlaveInfo.getPlacementNode());
+        }
+        if (LabelConfiguration.CPU_QUOTA.equals(cpuLimitMode)) {
+            containerCmd.withCpuPeriod(CPU_PERIOD);
+            containerCmd.withCpuQuota(cpuAllocation * CPU_PERIOD);
+            dockerSlaveInfo.setCpuQuota(CPU_PERIOD, cpuAllocation * CPU_PERIOD);
+        }
+        dockerSlaveInfo.setCpuLimitMode(cpuLimitMode);
     }
 
-    private void createCacheBindings(final TaskListener listener, final CreateContainerCmd createContainerCmd, final DockerComputer computer, final String[] cacheDirs, final Bind[] binds) {
-        if (cacheDirs.length > 0) {
-            final String cacheVolumeName = getJobName() + "-" + computer.getName();
-            createContainerCmd.withVolumeDriver("cache-driver");
-            this.bi.getAction(DockerSlaveInfo.class).setCacheVolumeName(cacheVolumeName);
-            for (int i = 0; i < cacheDirs.length; i++) {
-                listener.getLogger().println("Binding Volume" + cacheDirs[i] + " to " + cacheVolumeName);
-                binds[binds.length - 1] = new Bind(cacheVolumeName, new Volume(cacheDirs[i]));
-            }
+    /**
+     * One cache-driver volume per cache dir, named {@code <cache>-<slave>}: the driver mounts the build's volume over
+     * the latest base it keeps for {@code <cache>} on that node, and makes the build's changes the new base on removal.
+     */
+    private Bind[] createCacheBindings(final TaskListener listener, final CreateContainerCmd createContainerCmd, final DockerComputer computer, final String[] cacheDirs, final DockerSlaveInfo dockerSlaveInfo) {
+        if (cacheDirs.length == 0 || this.jobName == null) {
+            return new Bind[0];
         }
+        createContainerCmd.withVolumeDriver(CacheVolumeManager.DRIVER);
+        final Bind[] binds = new Bind[cacheDirs.length];
+        final String[] names = new String[cacheDirs.length];
+        for (int i = 0; i < cacheDirs.length; i++) {
+            names[i] = CacheVolumeManager.getVolumeName(getJobName(), cacheDirs.length == 1 ? null : cacheDirs[i], computer.getName());
+            listener.getLogger().println("Binding Volume " + cacheDirs[i] + " to " + names[i]);
+            binds[i] = new Bind(names[i], new Volume(cacheDirs[i]));
+        }
+        dockerSlaveInfo.setCacheVolumeName(StringUtils.join(names, ", "));
+        return binds;
     }
 
     private boolean noResourcesAvailable(final Throwable e) {
         return e instanceof InternalServerErrorException && e.getMessage().trim().contains("no resources available to schedule container");
     }
 
-    private void setToInProgress(final Queue.BuildableItem bi) {
-        final DockerSlaveInfo slaveInfoAction = bi.getAction(DockerSlaveInfo.class);
+    private DockerSlaveInfo attachSlaveInfo() {
+        final DockerSlaveInfo slaveInfoAction = this.bi == null ? this.warmSlaveInfo : this.bi.getAction(DockerSlaveInfo.class);
         if (slaveInfoAction != null) {
-            slaveInfoAction.setProvisioningInProgress(true);
+            return slaveInfoAction;
+        }
+        final DockerSlaveInfo newSlaveInfo = new DockerSlaveInfo(true);
+        if (this.bi == null) {
+            newSlaveInfo.setPlacement(this.warmPlacement);
+            this.warmSlaveInfo = newSlaveInfo;
         } else {
-            bi.replaceAction(new DockerSlaveInfo(true));
+            this.bi.replaceAction(newSlaveInfo);
         }
+        return newSlaveInfo;
+    }
+
+    public DockerSlaveInfo getWarmSlaveInfo() {
+        return this.warmSlaveInfo;
+    }
+
+    /**
+     * @return the info of the build or warm slave this launcher launches, null before the first launch.
+     */
+    public DockerSlaveInfo getSlaveInfo() {
+        return this.bi == null ? this.warmSlaveInfo : this.bi.getAction(DockerSlaveInfo.class);
     }
 
 
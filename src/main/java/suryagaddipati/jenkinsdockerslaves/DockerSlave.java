@@ -50,6 +50,14 @@ public class DockerSlave extends AbstractCloudSlave implements EphemeralNode {
                 Collections.<NodeProperty<?>>emptyList());
     }
 
+    public DockerSlave(String name, LabelConfiguration labelConfiguration, SwarmCapacity.Placement placement) throws Descriptor.FormException, IOException {
+        super(name, "Warm container slave for label " + labelConfiguration.getLabel(),
+                "/home/jenkins", 1, Mode.EXCLUSIVE, name,
+                new DockerComputerLauncher(labelConfiguration.getLabel(), placement),
+                RetentionStrategy.NOOP,
+                Collections.<NodeProperty<?>>emptyList());
+    }
+
     public DockerComputer createComputer() {
         return new DockerComputer(this);
     }
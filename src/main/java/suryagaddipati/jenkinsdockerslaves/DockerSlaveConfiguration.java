@@ -23,17 +23,15 @@ THE SOFTWARE.
  */
 package suryagaddipati.jenkinsdockerslaves;
 
-import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
-import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.DockerClientConfig;
-import com.google.common.base.Function;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import hudson.Extension;
 import hudson.model.Label;
+import hudson.util.FormValidation;
 import jenkins.model.GlobalConfiguration;
 import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.util.ArrayList;
@@ -51,9 +49,14 @@ public class DockerSlaveConfiguration extends GlobalConfiguration {
     private boolean privileged;
     private String jenkinsUrl;
     private String baseWorkspaceLocation;
+    private String agentJarCacheDir;
 
 
     private int maxProvisioningAttempts;
+    private int maxInFlightPerTenant;
+    private boolean fairShareByLabel;
+    private int orphanGracePeriodMinutes;
+    private String placementStrategy;
 
     public List<LabelConfiguration> getLabelConfigurations() {
         return labelConfigurations;
@@ -61,10 +64,14 @@ public class DockerSlaveConfiguration extends GlobalConfiguration {
 
     public void setLabelConfigurations(List<LabelConfiguration> labelConfigurations) {
         this.labelConfigurations = labelConfigurations;
+        labelIndex = null;
     }
 
     private List<LabelConfiguration> labelConfigurations;
 
+    private transient volatile LabelIndex labelIndex;
+
+    private transient volatile SharedDockerClient sharedDockerClient;
 
     public DockerSlaveConfiguration() {
         load();
@@ -73,25 +80,82 @@ public class DockerSlaveConfiguration extends GlobalConfiguration {
         }
     }
 
+    public FormValidation doCheckHostBinds(@QueryParameter String value) {
+        for (String bind : StringUtils.split(StringUtils.defaultString(value), ' ')) {
+            try {
+                LaunchTemplate.parseBind(bind);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+        return FormValidation.ok();
+    }
+
     @Override
     public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
         req.bindJSON(this, json);
+        labelIndex = new LabelIndex(labelConfigurations);
         save();
+        SharedDockerClient current = sharedDockerClient;
+        if (current != null && !current.getSettings().equals(getDockerClientSettings())) {
+            resetDockerClient();
+        }
         return true;
     }
 
-    public DockerClient newDockerClient(){
+    public SharedDockerClient.Lease leaseDockerClient() {
+        while (true) {
+            SharedDockerClient.Lease lease = getSharedDockerClient().acquire();
+            if (lease != null) {
+                return lease;
+            }
+        }
+    }
+
+    public SharedDockerClient.Stats getDockerClientStats() {
+        SharedDockerClient current = sharedDockerClient;
+        return current == null ? null : current.getStats();
+    }
+
+    private SharedDockerClient getSharedDockerClient() {
+        SharedDockerClient current = sharedDockerClient;
+        if (current == null) {
+            synchronized (this) {
+                current = sharedDockerClient;
+                if (current == null) {
+                    current = new SharedDockerClient(newDockerClientConfig(), getDockerClientSettings());
+                    sharedDockerClient = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private void resetDockerClient() {
+        SharedDockerClient retired;
+        synchronized (this) {
+            retired = sharedDockerClient;
+            sharedDockerClient = null;
+        }
+        if (retired != null) {
+            retired.retire();
+        }
+    }
+
+    private String getDockerClientSettings() {
+        return uri + "|" + useTLS + "|" + certificatesPath + "|" + apiVersion;
+    }
+
+    private DockerClientConfig newDockerClientConfig(){
         if (Boolean.TRUE.equals(useTLS)) {
-            DockerClientConfig config = new DefaultDockerClientConfig.Builder()
+            return new DefaultDockerClientConfig.Builder()
                     .withDockerHost(uri)
                     .withDockerTlsVerify(true)
                     .withDockerCertPath(certificatesPath)
                     .withApiVersion(apiVersion)
                     .build();
-            return  DockerClientBuilder.getInstance(config).build();
         } else {
-            DockerClientConfig config = new DefaultDockerClientConfig.Builder().withDockerTlsVerify(false).withApiVersion(apiVersion).withDockerHost(uri).build();
-            return  DockerClientBuilder.getInstance(config).build();
+            return new DefaultDockerClientConfig.Builder().withDockerTlsVerify(false).withApiVersion(apiVersion).withDockerHost(uri).build();
         }
     }
 
@@ -151,6 +215,14 @@ public class DockerSlaveConfiguration extends GlobalConfiguration {
         this.baseWorkspaceLocation = baseWorkspaceLocation;
     }
 
+    public String getAgentJarCacheDir() {
+        return agentJarCacheDir;
+    }
+
+    public void setAgentJarCacheDir(String agentJarCacheDir) {
+        this.agentJarCacheDir = agentJarCacheDir;
+    }
+
     public String getApiVersion() {
         return apiVersion;
     }
@@ -160,27 +232,32 @@ public class DockerSlaveConfiguration extends GlobalConfiguration {
     }
 
     public List<String> getLabels() {
-        Iterable<String> labels = Iterables.transform(getLabelConfigurations(), new Function<LabelConfiguration, String>() {
-            public String apply(LabelConfiguration labelConfiguration) {
-                return labelConfiguration.getLabel();
-            }
-        });
-        return Lists.newArrayList(labels);
+        return getLabelIndex().getLabels();
     }
 
-    public LabelConfiguration getLabelConfiguration(String label) {
-        for(LabelConfiguration labelConfiguration : labelConfigurations){
-            if (label.equals(labelConfiguration.getLabel())){
-                return labelConfiguration;
-            }
+    public LabelIndex getLabelIndex() {
+        LabelIndex current = labelIndex;
+        if (current == null) {
+            current = new LabelIndex(labelConfigurations);
+            labelIndex = current;
         }
+        return current;
+    }
 
-        return null;
+    /**
+     * @param label a configured label or a label expression matching one.
+     */
+    public LaunchTemplate getLaunchTemplate(String label) {
+        return getLabelIndex().get(label);
+    }
 
+    public LabelConfiguration getLabelConfiguration(String label) {
+        LaunchTemplate template = getLaunchTemplate(label);
+        return template == null ? null : template.getLabelConfiguration();
     }
 
     public boolean canProvision(Label label) {
-        return getLabelConfiguration(label.getName()) != null;
+        return label != null && getLaunchTemplate(label.getName()) != null;
     }
 
     public int getMaxProvisioningAttempts() {
@@ -190,4 +267,36 @@ public class DockerSlaveConfiguration extends GlobalConfiguration {
     public void setMaxProvisioningAttempts(int maxProvisioningAttempts) {
         this.maxProvisioningAttempts = maxProvisioningAttempts;
     }
+
+    public int getMaxInFlightPerTenant() {
+        return maxInFlightPerTenant;
+    }
+
+    public void setMaxInFlightPerTenant(int maxInFlightPerTenant) {
+        this.maxInFlightPerTenant = maxInFlightPerTenant;
+    }
+
+    public int getOrphanGracePeriodMinutes() {
+        return orphanGracePeriodMinutes <= 0 ? 10 : orphanGracePeriodMinutes;
+    }
+
+    public void setOrphanGracePeriodMinutes(int orphanGracePeriodMinutes) {
+        this.orphanGracePeriodMinutes = orphanGracePeriodMinutes;
+    }
+
+    public boolean isFairShareByLabel() {
+        return fairShareByLabel;
+    }
+
+    public void setFairShareByLabel(boolean fairShareByLabel) {
+        this.fairShareByLabel = fairShareByLabel;
+    }
+
+    public String getPlacementStrategy() {
+        return placementStrategy == null ? SwarmCapacity.Strategy.SWARM.name() : placementStrategy;
+    }
+
+    public void setPlacementStrategy(String placementStrategy) {
+        this.placementStrategy = placementStrategy;
+    }
 }
@@ -4,37 +4,53 @@ import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.github.dockerjava.api.model.Statistics;
 import com.google.common.base.Joiner;
+import com.google.common.primitives.Longs;
 import hudson.model.Run;
 import jenkins.model.RunAction2;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.time.Duration;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class DockerSlaveInfo implements RunAction2 {
+    private static final Logger LOGGER = Logger.getLogger(DockerSlaveInfo.class.getName());
 
     private final Date firstProvisioningAttempt;
     private String cacheVolumeName;
     private String cacheVolumeNameMountPoint;
     private Integer allocatedCPUShares;
     private Long allocatedMemory;
+    // only set in builds saved before metrics moved to ResourceMetrics.FILE_NAME
     private Long maxMemoryUsage;
     private List<Long> perCpuUsage;
-    private Integer throttledTime;
+    private Long throttledTime;
     private transient Run<?, ?> run;
     private Date computerLaunchTime;
     private int provisioningAttempts;
     private String containerId;
+    private String dockerContainerId;
     private String dockerImage;
     private boolean provisioningInProgress;
+    private transient int launchAttempt;
     private Date provisionedTime;
+    private String metricsFile;
+    private String cpuLimitMode;
+    private Integer cpuPeriod;
+    private Integer cpuQuota;
+    private String cpusetCpus;
+    private String cpusetMems;
+    private String placementNode;
+    private boolean placementSoft;
+    private LaunchTimings launchTimings;
+    private transient volatile ResourceMetrics metrics;
 
     public DockerSlaveInfo(final boolean provisioningInProgress) {
         this.provisioningInProgress = provisioningInProgress;
@@ -49,6 +65,7 @@ public class DockerSlaveInfo implements RunAction2 {
     @Override
     public void onAttached(final Run<?, ?> r) {
         this.run = r;
+        markPhase(LaunchTimings.Phase.PICKUP);
     }
 
     @Override
@@ -85,6 +102,39 @@ public class DockerSlaveInfo implements RunAction2 {
         this.provisioningInProgress = provisioningInProgress;
     }
 
+    /**
+     * Marks a new launch as in progress.
+     *
+     * @return the attempt to pass to {@link #finishLaunch(int)} once the launch completes.
+     */
+    public synchronized int startLaunch() {
+        this.provisioningInProgress = true;
+        return ++this.launchAttempt;
+    }
+
+    /**
+     * @return false if the attempt was superseded, in which case its outcome must be ignored.
+     */
+    public synchronized boolean finishLaunch(final int attempt) {
+        if (attempt != this.launchAttempt) {
+            return false;
+        }
+        this.provisioningInProgress = false;
+        return true;
+    }
+
+    /**
+     * Gives up on the current launch attempt without waiting for it to complete.
+     */
+    public synchronized void abandonLaunch() {
+        this.launchAttempt++;
+        this.provisioningInProgress = false;
+    }
+
+    public synchronized boolean isCurrentLaunch(final int attempt) {
+        return attempt == this.launchAttempt;
+    }
+
     public void setProvisionedTime(final Date provisionedTime) {
         this.provisionedTime = provisionedTime;
     }
@@ -95,6 +145,7 @@ public class DockerSlaveInfo implements RunAction2 {
 
     public void setContainerInfo(final InspectContainerResponse containerInfo) {
         this.containerId = containerInfo.getNode().getName() + containerInfo.getName();
+        this.dockerContainerId = containerInfo.getId();
     }
 
     public void setCacheVolumeMountpoint(final String mountpoint) {
@@ -115,32 +166,26 @@ public class DockerSlaveInfo implements RunAction2 {
 
 
     public Long getMaxMemoryUsage() {
-        return this.maxMemoryUsage;
+        return getMetrics().getMaxMemoryUsage();
     }
 
     public String getMemoryStats() {
-        return this.maxMemoryUsage != null ? this.maxMemoryUsage + " bytes (" + Math.floor((this.maxMemoryUsage / 1024) / 1024) + " MB )" : "";
-    }
-
-    private void setMemoryStats(final Map<String, Object> memoryStats) {
-        final Object maxUsage = memoryStats.get("max_usage");
-        if (maxUsage instanceof Integer) {
-            this.maxMemoryUsage = ((Integer) maxUsage).longValue();
-        } else {
-            this.maxMemoryUsage = (Long) maxUsage;
-        }
+        final Long maxMemoryUsage = getMaxMemoryUsage();
+        return maxMemoryUsage != null ? maxMemoryUsage + " bytes (" + Math.floor((maxMemoryUsage / 1024) / 1024) + " MB )" : "";
     }
 
     public String getPerCpuUsage() {
-        return this.perCpuUsage == null ? "" : Joiner.on(", ").join(this.perCpuUsage);
+        final long[] perCpuUsage = getMetrics().getPerCpuUsage();
+        return perCpuUsage == null ? "" : Joiner.on(", ").join(Longs.asList(perCpuUsage));
     }
 
     public String getTotalCpuUsage() {
-        if (this.perCpuUsage == null) {
+        final long[] perCpuUsage = getMetrics().getPerCpuUsage();
+        if (perCpuUsage == null) {
             return null;
         }
         long sum = 0;
-        for (final Long value : this.perCpuUsage) {
+        for (final long value : perCpuUsage) {
             sum = sum + value;
         }
         final long seconds = TimeUnit.SECONDS.convert(sum, TimeUnit.NANOSECONDS);
@@ -150,34 +195,64 @@ public class DockerSlaveInfo implements RunAction2 {
 
     }
 
+    public void addSample(final long time, final Statistics stats) {
+        this.metricsFile = ResourceMetrics.FILE_NAME;
+        getMetrics().addSample(time, stats);
+    }
+
+    public ResourceSamples getResourceSamples() {
+        return getMetrics().getSamples();
+    }
+
     public void setStats(final Statistics stats) {
-        final Map<String, Object> memoryStats = stats.getMemoryStats();
-        setMemoryStats(memoryStats);
-        setCpuStats(stats);
-    }
-
-    private void setCpuStats(final Statistics stats) {
-        final Map<String, Object> cpuStats = stats.getCpuStats();
-        if (cpuStats != null) {
-            final Map<String, Object> cpuUsage = (Map<String, Object>) cpuStats.get("cpu_usage");
-            if (cpuUsage != null) {
-                final List<Long> perCpuUsage = (List<Long>) cpuUsage.get("percpu_usage");
-                if (perCpuUsage != null) {
-                    this.perCpuUsage = perCpuUsage;
-                }
+        getMetrics().setStats(stats);
+    }
 
-            }
+    /**
+     * Writes the metrics next to build.xml, which only keeps the file name.
+     */
+    public void saveMetrics() throws IOException {
+        final ResourceMetrics current = this.metrics;
+        if (this.run != null && current != null) {
+            this.metricsFile = ResourceMetrics.FILE_NAME;
+            current.write(new File(this.run.getRootDir(), this.metricsFile));
+        }
+    }
 
-            final Map<String, Object> throttlingData = (Map<String, Object>) cpuStats.get("throttling_data");
-            if (throttlingData != null) {
-                this.throttledTime = (Integer) throttlingData.get("throttled_time");
+    private ResourceMetrics getMetrics() {
+        ResourceMetrics current = this.metrics;
+        if (current == null) {
+            synchronized (this) {
+                if (this.metrics == null) {
+                    this.metrics = loadMetrics();
+                }
+                current = this.metrics;
             }
+        }
+        return current;
+    }
 
+    private ResourceMetrics loadMetrics() {
+        if (this.run != null) {
+            final File file = new File(this.run.getRootDir(), this.metricsFile == null ? ResourceMetrics.FILE_NAME : this.metricsFile);
+            if (file.exists()) {
+                try {
+                    return ResourceMetrics.read(file);
+                } catch (final IOException e) {
+                    LOGGER.log(Level.INFO, "couldn't read " + file, e);
+                }
+            }
         }
+        return new ResourceMetrics(this.maxMemoryUsage, this.perCpuUsage, this.throttledTime);
     }
 
     public boolean wasThrottled() {
-        return this.throttledTime != null && this.throttledTime > 0;
+        return getMetrics().isThrottled();
+    }
+
+    public Long getThrottledPercent() {
+        final Double ratio = getMetrics().getThrottledRatio();
+        return ratio == null ? null : Math.round(ratio * 100);
     }
 
     public Integer getCpuAllocation() {
@@ -196,12 +271,62 @@ public class DockerSlaveInfo implements RunAction2 {
         this.allocatedCPUShares = allocatedCPUShares;
     }
 
+    public void setCpuLimitMode(final String cpuLimitMode) {
+        this.cpuLimitMode = cpuLimitMode;
+    }
+
+    public String getCpuLimitMode() {
+        return this.cpuLimitMode;
+    }
+
+    public void setCpuQuota(final Integer cpuPeriod, final Integer cpuQuota) {
+        this.cpuPeriod = cpuPeriod;
+        this.cpuQuota = cpuQuota;
+    }
+
+    public void setPlacement(final SwarmCapacity.Placement placement) {
+        this.placementNode = placement.getNode();
+        this.placementSoft = placement.isSoft();
+    }
+
+    /**
+     * @return swarm node chosen by the placement strategy or cache affinity, or null to let swarm choose.
+     */
+    public String getPlacementNode() {
+        return this.placementNode;
+    }
+
+    /**
+     * @return the legacy swarm constraint env entry for the placement, or null.
+     */
+    public String getPlacementConstraint() {
+        return this.placementNode == null ? null : "constraint:node==" + (this.placementSoft ? "~" : "") + this.placementNode;
+    }
+
+    public void setCpuset(final String cpusetCpus, final String cpusetMems) {
+        this.cpusetCpus = cpusetCpus;
+        this.cpusetMems = cpusetMems;
+    }
+
+    /**
+     * @return the cpu limit the container ran under, to read throttling against.
+     */
+    public String getCpuLimit() {
+        if (LabelConfiguration.CPU_QUOTA.equals(this.cpuLimitMode) && this.cpuQuota != null) {
+            return "quota " + this.cpuQuota + "us per " + this.cpuPeriod + "us";
+        }
+        if (LabelConfiguration.CPU_CPUSET.equals(this.cpuLimitMode) && this.cpusetCpus != null) {
+            return "cpus " + this.cpusetCpus + (this.cpusetMems == null ? "" : ", memory nodes " + this.cpusetMems);
+        }
+        return this.allocatedCPUShares == null ? "N/A" : this.allocatedCPUShares + " shares";
+    }
+
     public boolean wereCpusAllocated() {
         return this.allocatedCPUShares != null && this.allocatedCPUShares != 0;
     }
 
-    public Integer getThrottledTime() {
-        return this.throttledTime;
+    public Long getThrottledTime() {
+        return getMetrics().getThrottledTime();
     }
 
     public Long getMemoryReservation() {
@@ -216,7 +341,8 @@ public class DockerSlaveInfo implements RunAction2 {
     }
 
     public Long getNextMemoryAllocation() {
-        return this.maxMemoryUsage == null ? 0l : this.maxMemoryUsage + Bytes.MB(500);
+        final Long maxMemoryUsage = getMaxMemoryUsage();
+        return maxMemoryUsage == null ? 0l : maxMemoryUsage + Bytes.MB(500);
     }
 
     public void setAllocatedMemory(final Long allocatedMemory) {
@@ -228,12 +354,19 @@ public class DockerSlaveInfo implements RunAction2 {
         return !this.run.isBuilding();
     }
 
-    public boolean isBuildPausable() throws IOException {
-        return this.containerId != null && isPausable();
+    public boolean isBuildPausable() {
+        return this.containerId != null && this.run.isBuilding() && isPausable();
+    }
+
+    public boolean isBuildUnPausable() {
+        return this.containerId != null && this.run.isBuilding() && isUnPausable();
     }
 
-    public boolean isBuildUnPausable() throws IOException {
-        return this.containerId != null && isUnPausable();
+    /**
+     * @return the cached state of a running build's container, or null once the build is over.
+     */
+    public ContainerStates.State getContainerState() {
+        return this.run.isBuilding() ? ContainerStates.get(this.dockerContainerId) : null;
     }
 
     public void doUnPauseBuild(final StaplerRequest req, final StaplerResponse rsp) throws ServletException, IOException {
@@ -257,8 +390,10 @@ public class DockerSlaveInfo implements RunAction2 {
     }
 
     public void pause() throws IOException {
-        try (DockerClient dockerClient = DockerSlaveConfiguration.get().newDockerClient()) {
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final DockerClient dockerClient = lease.getClient();
             dockerClient.pauseContainerCmd(this.containerId).exec();
+            ContainerStates.update(this.dockerContainerId, ContainerStates.Status.PAUSED);
 
             final FileOutputStream logger = new FileOutputStream(this.run.getLogFile(), true);
             logger.write("Build Paused. Resume Docker Slave to resume build. \n".getBytes());
@@ -266,33 +401,58 @@ public class DockerSlaveInfo implements RunAction2 {
     }
 
     public void unpause() throws IOException {
-        try (DockerClient dockerClient = DockerSlaveConfiguration.get().newDockerClient()) {
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final DockerClient dockerClient = lease.getClient();
             dockerClient.unpauseContainerCmd(this.containerId).exec();
+            ContainerStates.update(this.dockerContainerId, ContainerStates.Status.RUNNING);
         }
     }
 
-    public boolean isPausable() throws IOException {
-        try (DockerClient dockerClient = DockerSlaveConfiguration.get().newDockerClient()) {
-            final InspectContainerResponse container = dockerClient.inspectContainerCmd(this.containerId).exec();
-            return !container.getState().getPaused();
-        }
+    public boolean isPausable() {
+        final ContainerStates.State state = ContainerStates.get(this.dockerContainerId);
+        return state != null && state.getStatus() == ContainerStates.Status.RUNNING;
     }
 
-    public boolean isUnPausable() throws IOException {
-        try (DockerClient dockerClient = DockerSlaveConfiguration.get().newDockerClient()) {
-            final InspectContainerResponse container = dockerClient.inspectContainerCmd(this.containerId).exec();
-            return container.getState().getPaused();
-        }
+    public boolean isUnPausable() {
+        final ContainerStates.State state = ContainerStates.get(this.dockerContainerId);
+        return state != null && state.getStatus() == ContainerStates.Status.PAUSED;
     }
 
     public void setComputerLaunchTime(final Date computerLaunchTime) {
         this.computerLaunchTime = computerLaunchTime;
     }
 
-    public boolean isComputerProvisioningStuck() {
+    /**
+     * Starts timing the build's launch phases, from when it entered the queue to now, when it got its capacity.
+     */
+    public synchronized void markQueued(final String label, final long queuedSince) {
+        if (this.launchTimings == null) {
+            this.launchTimings = new LaunchTimings(label, queuedSince);
+        }
+        this.launchTimings.mark(LaunchTimings.Phase.QUEUE);
+    }
+
+    public void markPhase(final LaunchTimings.Phase phase) {
+        final LaunchTimings timings = this.launchTimings;
+        if (timings != null) {
+            timings.mark(phase);
+        }
+    }
+
+    public LaunchTimings getLaunchTimings() {
+        return this.launchTimings;
+    }
+
+    public Date getComputerLaunchTime() {
+        return this.computerLaunchTime;
+    }
+
+    /**
+     * @param thresholdMillis see {@link LaunchLatency#getStuckThresholdMillis(String)}.
+     */
+    public boolean isComputerProvisioningStuck(final long thresholdMillis) {
         if (this.computerLaunchTime != null) {
-            final Duration secondsSpentProvisioning = Duration.ofMillis(new Date().getTime() - this.computerLaunchTime.getTime());
-            return secondsSpentProvisioning.toMinutes() > 2;
+            return System.currentTimeMillis() - this.computerLaunchTime.getTime() > thresholdMillis;
         }
         return false;
     }
@@ -5,18 +5,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ExceptionHandlingHelpers {
-    public static void executeWithRetryOnError(final Runnable runnable) {
-        try {
-            runnable.run();
-        } catch (final Exception e) {
-            try {
-                Thread.sleep(5000);
-                runnable.run();
-            } catch (final Exception e1) {
-            }
-        }
-    }
-
     public static void executeSliently(final Runnable runnable) {
         try {
             runnable.run();
@@ -0,0 +1,125 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.queue.SubTask;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides which waiting docker items get a slave first. Items are grouped into tenants, either by top level job or by
+ * label, and the tenant with the lowest running plus in-flight builds per unit of its label's share weight is served
+ * next; within a tenant the queue's own priority order is kept. A tenant may have at most
+ * {@link DockerSlaveConfiguration#getMaxInFlightPerTenant()} provisions in flight.
+ */
+public class FairShare {
+
+    // queue item id -> tenant, from admission until the item leaves the queue
+    private static final ConcurrentMap<Long, String> inFlight = new ConcurrentHashMap<>();
+
+    public static boolean admit(final Queue.Item item) {
+        final String tenant = getTenant(item.task);
+        final int maxInFlight = DockerSlaveConfiguration.get().getMaxInFlightPerTenant();
+        synchronized (inFlight) {
+            if (maxInFlight > 0 && !inFlight.containsKey(item.getId()) && getInFlight(tenant) >= maxInFlight) {
+                return false;
+            }
+            inFlight.put(item.getId(), tenant);
+            return true;
+        }
+    }
+
+    public static void release(final Queue.Item item) {
+        inFlight.remove(item.getId());
+    }
+
+    public static int getInFlight(final String tenant) {
+        int count = 0;
+        for (final String t : inFlight.values()) {
+            if (t.equals(tenant)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param items in queue priority order
+     * @return the same items, interleaved by tenant share
+     */
+    public static List<Queue.BuildableItem> order(final List<Queue.BuildableItem> items) {
+        final Map<String, Deque<Queue.BuildableItem>> byTenant = new LinkedHashMap<>();
+        for (final Queue.BuildableItem item : items) {
+            byTenant.computeIfAbsent(getTenant(item.task), t -> new ArrayDeque<>()).add(item);
+        }
+        final Map<String, Integer> usage = getUsage();
+
+        final List<Queue.BuildableItem> ordered = new ArrayList<>(items.size());
+        while (!byTenant.isEmpty()) {
+            String next = null;
+            double nextShare = Double.MAX_VALUE;
+            for (final Map.Entry<String, Deque<Queue.BuildableItem>> tenant : byTenant.entrySet()) {
+                final double share = usage.getOrDefault(tenant.getKey(), 0) / (double) getShareWeight(tenant.getValue().peek());
+                if (share < nextShare) {
+                    next = tenant.getKey();
+                    nextShare = share;
+                }
+            }
+            final Deque<Queue.BuildableItem> queue = byTenant.get(next);
+            ordered.add(queue.poll());
+            usage.merge(next, 1, Integer::sum);
+            if (queue.isEmpty()) {
+                byTenant.remove(next);
+            }
+        }
+        return ordered;
+    }
+
+    private static Map<String, Integer> getUsage() {
+        final Map<String, Integer> usage = new HashMap<>();
+        for (final String tenant : inFlight.values()) {
+            usage.merge(tenant, 1, Integer::sum);
+        }
+        for (final Computer computer : Jenkins.getInstance().getComputers()) {
+            if (computer instanceof DockerComputer) {
+                for (final Executor executor : computer.getExecutors()) {
+                    final Queue.Executable executable = executor.getCurrentExecutable();
+                    if (executable != null) {
+                        usage.merge(getTenant(executable.getParent()), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        return usage;
+    }
+
+    private static int getShareWeight(final Queue.BuildableItem item) {
+        final Label label = item.task.getAssignedLabel();
+        final LabelConfiguration labelConfiguration = label == null ? null : DockerSlaveConfiguration.get().getLabelConfiguration(label.getName());
+        return labelConfiguration == null ? 1 : labelConfiguration.getShareWeight();
+    }
+
+    public static String getTenant(final SubTask task) {
+        if (DockerSlaveConfiguration.get().isFairShareByLabel()) {
+            final Label label = task.getAssignedLabel();
+            return label == null ? "" : label.getName();
+        }
+        final Queue.Task owner = task.getOwnerTask();
+        if (owner instanceof Job && ((Job) owner).getParent() instanceof Job) {
+            return ((Job) ((Job) owner).getParent()).getFullDisplayName();
+        }
+        return owner.getFullDisplayName();
+    }
+}
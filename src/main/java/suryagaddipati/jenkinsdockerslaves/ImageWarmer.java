@@ -0,0 +1,306 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.PullResponseItem;
+import com.github.dockerjava.core.command.PullImageResultCallback;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-pulls the image of every label configuration onto the swarm nodes, so builds don't pay for the pull and a newly
+ * pushed image isn't pulled by a wave of builds at once. Pulls go through the swarm manager, which pulls on every node
+ * and reports each node's progress under the node's name; at most {@code .parallelism} images are pulled at a time.
+ * <p>
+ * The digest every node reports is tracked. An image is pulled again when a node doesn't have it yet, or when its
+ * tag is due to be checked for a new push, which costs nodes holding the current digest only a manifest lookup.
+ * Images pinned by digest are never checked again.
+ */
+@Extension
+public class ImageWarmer extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(ImageWarmer.class.getName());
+    private static final Pattern DIGEST = Pattern.compile("sha256:[0-9a-f]{64}");
+    private static final int PARALLELISM = Integer.getInteger(ImageWarmer.class.getName() + ".parallelism", 2);
+    private static final long CHECK_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong(ImageWarmer.class.getName() + ".checkMinutes", 15));
+    private static final long PULL_TIMEOUT_MINUTES = Long.getLong(ImageWarmer.class.getName() + ".pullTimeoutMinutes", 30);
+
+    private static final Map<String, ImageState> images = new ConcurrentHashMap<>();
+    private static ExecutorService executor;
+
+    public ImageWarmer() {
+        super("Docker image warmer");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(Long.getLong(ImageWarmer.class.getName() + ".periodSeconds", 60));
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) {
+        if (CircuitBreaker.DOCKER.isOpen()) {
+            return;
+        }
+        final Set<String> configured = new HashSet<>();
+        for (final LaunchTemplate template : DockerSlaveConfiguration.get().getLabelIndex().getTemplates()) {
+            final String image = template.getImage();
+            if (image != null && !image.trim().isEmpty()) {
+                configured.add(image.trim());
+            }
+        }
+        images.keySet().retainAll(configured);
+        final List<String> nodes = getSwarmNodes();
+        final long now = System.currentTimeMillis();
+        for (final String image : configured) {
+            final ImageState state = images.computeIfAbsent(image, ImageState::new);
+            if (!nodes.isEmpty()) {
+                state.nodes.keySet().retainAll(nodes);
+            }
+            if (state.isDue(nodes, now) && state.pulling.compareAndSet(false, true)) {
+                getExecutor().execute(() -> pull(state, nodes));
+            }
+        }
+    }
+
+    private static List<String> getSwarmNodes() {
+        final List<String> nodes = new ArrayList<>();
+        final SwarmCapacity capacity = SwarmCapacity.get();
+        if (capacity != null) {
+            for (final SwarmCapacity.NodeCapacity node : capacity.getNodes()) {
+                if (node.isHealthy()) {
+                    nodes.add(node.getName());
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static void pull(final ImageState state, final Collection<String> nodes) {
+        final String[] repositoryAndTag = splitTag(state.image);
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final Pull pull = lease.getClient().pullImageCmd(repositoryAndTag[0])
+                    .withTag(repositoryAndTag[1])
+                    .exec(new Pull(state, nodes));
+            if (pull.awaitCompletion(PULL_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                state.error = null;
+                for (final String node : nodes) {
+                    state.nodes.putIfAbsent(node, NodeImage.MISSING); // retried when the image is next checked
+                }
+            } else {
+                pull.close();
+                state.error = "timed out after " + PULL_TIMEOUT_MINUTES + " minutes";
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.INFO, "couldn't pull " + state.image, e);
+            state.error = e.getMessage();
+        } finally {
+            state.checked = System.currentTimeMillis();
+            state.pulling.set(false);
+        }
+    }
+
+    /**
+     * @return the repository and the tag or digest; untagged images are pulled as {@code latest}, not as every tag.
+     */
+    static String[] splitTag(final String image) {
+        final int digest = image.indexOf('@');
+        if (digest > 0) {
+            return new String[]{image.substring(0, digest), image.substring(digest + 1)};
+        }
+        final int tag = image.lastIndexOf(':');
+        if (tag > image.lastIndexOf('/')) {
+            return new String[]{image.substring(0, tag), image.substring(tag + 1)};
+        }
+        return new String[]{image, "latest"};
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "ImageWarmer"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * @return configured images by name, for the dashboard.
+     */
+    public static Map<String, ImageState> getImages() {
+        return new TreeMap<>(images);
+    }
+
+    private static class Pull extends PullImageResultCallback {
+        private final ImageState state;
+        private final Collection<String> nodes;
+
+        Pull(final ImageState state, final Collection<String> nodes) {
+            this.state = state;
+            this.nodes = nodes;
+        }
+
+        @Override
+        public void onNext(final PullResponseItem item) {
+            super.onNext(item);
+            final String node = this.nodes.contains(item.getId()) ? item.getId() : null;
+            final String status = item.getStatus() == null ? "" : item.getStatus();
+            String digest = item.getAux() == null ? null : item.getAux().getDigest();
+            if (digest == null && status.contains("Digest:")) {
+                final Matcher matcher = DIGEST.matcher(status);
+                digest = matcher.find() ? matcher.group() : null;
+            }
+            if (digest != null) {
+                this.state.setDigest(digest);
+            }
+            if (node == null) {
+                return;
+            }
+            if (item.isErrorIndicated()) {
+                this.state.nodes.put(node, new NodeImage(this.state.getNode(node).digest, item.getError()));
+            } else if (digest != null) {
+                this.state.nodes.put(node, new NodeImage(digest, null));
+            } else if (status.contains("Status:") || status.contains("downloaded")) {
+                this.state.nodes.put(node, new NodeImage(this.state.getNode(node).digest, null));
+            }
+        }
+    }
+
+    public static class ImageState {
+        private final String image;
+        private final AtomicBoolean pulling = new AtomicBoolean(false);
+        private final Map<String, NodeImage> nodes = new ConcurrentHashMap<>();
+        private volatile String digest;
+        private volatile Date changed;
+        private volatile long checked;
+        private volatile String error;
+
+        ImageState(final String image) {
+            this.image = image;
+        }
+
+        private synchronized void setDigest(final String digest) {
+            if (!digest.equals(this.digest)) {
+                if (this.digest != null) {
+                    LOGGER.log(Level.INFO, "{0} changed from {1} to {2}", new Object[]{this.image, this.digest, digest});
+                }
+                this.digest = digest;
+                this.changed = new Date();
+            }
+        }
+
+        private NodeImage getNode(final String node) {
+            final NodeImage nodeImage = this.nodes.get(node);
+            return nodeImage == null ? NodeImage.MISSING : nodeImage;
+        }
+
+        private boolean isPinned() {
+            return this.image.contains("@");
+        }
+
+        private boolean isDue(final List<String> swarmNodes, final long now) {
+            if (this.checked == 0) {
+                return true;
+            }
+            for (final String node : swarmNodes) {
+                if (!this.nodes.containsKey(node)) {
+                    return true; // joined since the last pull
+                }
+            }
+            final boolean failed = this.error != null || getReadyCount() < this.nodes.size();
+            return (failed || !isPinned()) && now - this.checked >= CHECK_MILLIS;
+        }
+
+        public String getImage() {
+            return this.image;
+        }
+
+        public String getDigest() {
+            return this.digest;
+        }
+
+        public Date getChanged() {
+            return this.changed;
+        }
+
+        public Date getChecked() {
+            return this.checked == 0 ? null : new Date(this.checked);
+        }
+
+        public String getError() {
+            return this.error;
+        }
+
+        public boolean isPulling() {
+            return this.pulling.get();
+        }
+
+        public boolean isReady(final String node) {
+            return getNode(node).isReady(this.digest);
+        }
+
+        public int getReadyCount() {
+            int ready = 0;
+            for (final String node : this.nodes.keySet()) {
+                if (isReady(node)) {
+                    ready++;
+                }
+            }
+            return ready;
+        }
+
+        /**
+         * @return readiness of every node that was pulled onto, by node name.
+         */
+        public Map<String, String> getNodes() {
+            final Map<String, String> statuses = new TreeMap<>();
+            for (final Map.Entry<String, NodeImage> node : this.nodes.entrySet()) {
+                statuses.put(node.getKey(), node.getValue().getStatus(this.digest));
+            }
+            return statuses;
+        }
+    }
+
+    private static class NodeImage {
+        static final NodeImage MISSING = new NodeImage(null, "missing");
+
+        private final String digest;
+        private final String error;
+
+        NodeImage(final String digest, final String error) {
+            this.digest = digest;
+            this.error = error;
+        }
+
+        boolean isReady(final String current) {
+            return this.error == null && (this.digest == null || current == null || this.digest.equals(current));
+        }
+
+        String getStatus(final String current) {
+            if (this.error != null) {
+                return this.error;
+            }
+            return isReady(current) ? "ready" : "stale";
+        }
+    }
+}
@@ -2,8 +2,13 @@ package suryagaddipati.jenkinsdockerslaves;
 
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public   class LabelConfiguration {
+    public static final String CPU_SHARES = "shares";
+    public static final String CPU_QUOTA = "quota";
+    public static final String CPU_CPUSET = "cpuset";
+
     String image;
     String hostBinds;
     String envVars;
@@ -13,6 +18,13 @@ public   class LabelConfiguration {
 
     private boolean dynamicResourceAllocation;
 
+    private int warmPoolSize;
+
+    private int shareWeight;
+
+    private String cpuLimitMode;
+    private int cpusPerNumaNode;
+
     @DataBoundConstructor
     public LabelConfiguration(String image, String hostBinds, String label, String cacheDir, Integer maxCpuShares, Long maxMemory, boolean dynamicResourceAllocation, String envVars) {
         this.image = image;
@@ -99,6 +111,51 @@ public   class LabelConfiguration {
         return envVars;
     }
 
+    public int getWarmPoolSize() {
+        return warmPoolSize;
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolSize(int warmPoolSize) {
+        this.warmPoolSize = warmPoolSize;
+    }
+
+    public int getShareWeight() {
+        return shareWeight <= 0 ? 1 : shareWeight;
+    }
+
+    @DataBoundSetter
+    public void setShareWeight(int shareWeight) {
+        this.shareWeight = shareWeight;
+    }
+
+    /**
+     * @return {@link #CPU_SHARES} (relative weight only), {@link #CPU_QUOTA} (hard limit of max cpus) or
+     * {@link #CPU_CPUSET} (exclusive cpus on one swarm node).
+     */
+    public String getCpuLimitMode() {
+        return StringUtils.isEmpty(cpuLimitMode) ? CPU_SHARES : cpuLimitMode;
+    }
+
+    @DataBoundSetter
+    public void setCpuLimitMode(String cpuLimitMode) {
+        this.cpuLimitMode = cpuLimitMode;
+    }
+
+    public int getCpusPerNumaNode() {
+        return cpusPerNumaNode;
+    }
+
+    @DataBoundSetter
+    public void setCpusPerNumaNode(int cpusPerNumaNode) {
+        this.cpusPerNumaNode = cpusPerNumaNode;
+    }
+
+    public boolean isWarmPoolEnabled() {
+        // cache volumes are per job, so they can't be mounted before a job is assigned
+        return warmPoolSize > 0 && getCacheDirs().length == 0;
+    }
+
     public String[] getEnvVarsConfig() {
         return StringUtils.isEmpty(this.envVars) ? new String[]{} : this.envVars.split(" ");
     }
@@ -0,0 +1,87 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import antlr.ANTLRException;
+import hudson.model.Label;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Label configurations compiled into {@link LaunchTemplate}s, rebuilt whenever the configuration is saved. A label
+ * configured verbatim is a map lookup. Any other label is treated as an expression (e.g. {@code docker && java8}) and
+ * matched against each configuration's label atoms in order; the outcome, including no match, is remembered.
+ */
+public class LabelIndex {
+    private static final Logger LOGGER = Logger.getLogger(LabelIndex.class.getName());
+
+    private final List<LaunchTemplate> templates;
+    private final Map<String, LaunchTemplate> byLabel;
+    private final List<String> labels;
+    private final Map<String, Optional<LaunchTemplate>> matched = new ConcurrentHashMap<>();
+
+    LabelIndex(final List<LabelConfiguration> labelConfigurations) {
+        final List<LaunchTemplate> templates = new ArrayList<>(labelConfigurations.size());
+        final Map<String, LaunchTemplate> byLabel = new HashMap<>();
+        final List<String> labels = new ArrayList<>(labelConfigurations.size());
+        for (final LabelConfiguration labelConfiguration : labelConfigurations) {
+            if (labelConfiguration.getLabel() == null) {
+                continue;
+            }
+            final LaunchTemplate template;
+            try {
+                template = new LaunchTemplate(labelConfiguration);
+            } catch (final RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Ignoring label configuration " + labelConfiguration.getLabel(), e);
+                continue;
+            }
+            templates.add(template);
+            byLabel.putIfAbsent(labelConfiguration.getLabel(), template);
+            labels.add(labelConfiguration.getLabel());
+        }
+        this.templates = Collections.unmodifiableList(templates);
+        this.byLabel = Collections.unmodifiableMap(byLabel);
+        this.labels = Collections.unmodifiableList(labels);
+    }
+
+    public LaunchTemplate get(final String label) {
+        if (label == null) {
+            return null;
+        }
+        final LaunchTemplate template = this.byLabel.get(label);
+        if (template != null) {
+            return template;
+        }
+        return this.matched.computeIfAbsent(label, this::match).orElse(null);
+    }
+
+    private Optional<LaunchTemplate> match(final String expression) {
+        final Label label;
+        try {
+            label = Label.parseExpression(expression);
+        } catch (final ANTLRException e) {
+            LOGGER.log(Level.FINE, "not a label expression: " + expression, e);
+            return Optional.empty();
+        }
+        for (final LaunchTemplate template : this.templates) {
+            if (template.matches(label)) {
+                return Optional.of(template);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public List<String> getLabels() {
+        return this.labels;
+    }
+
+    public List<LaunchTemplate> getTemplates() {
+        return this.templates;
+    }
+}
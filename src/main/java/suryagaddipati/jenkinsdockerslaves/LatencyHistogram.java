@@ -0,0 +1,102 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Latencies counted in fixed buckets from 100ms to 20 minutes. Once {@link #DECAY_AT} samples are counted all buckets
+ * are halved, so recent samples outweigh old ones without keeping them. Percentiles are the upper bound of the bucket
+ * they fall in, or the slowest sample for the overflow bucket.
+ */
+public class LatencyHistogram {
+    private static final long[] BOUNDS = {100, 250, 500, 1000, 2000, 3000, 5000, 7500, 10000, 15000, 20000, 30000,
+            45000, 60000, 90000, 120000, 180000, 240000, 300000, 600000, 1200000};
+    private static final int DECAY_AT = Integer.getInteger(LatencyHistogram.class.getName() + ".decayAt", 200);
+
+    private final long[] counts = new long[BOUNDS.length + 1];
+    private long count;
+    private long total;
+    private long max;
+
+    public synchronized void record(final long millis) {
+        if (millis < 0) {
+            return;
+        }
+        if (this.count >= DECAY_AT) {
+            decay();
+        }
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        this.counts[bucket]++;
+        this.count++;
+        this.total += millis;
+        this.max = Math.max(this.max, millis);
+    }
+
+    private void decay() {
+        long remaining = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] /= 2;
+            remaining += this.counts[i];
+        }
+        this.total = this.total / this.count * remaining;
+        this.count = remaining;
+    }
+
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    public synchronized long getMeanMillis() {
+        return this.count == 0 ? 0 : this.total / this.count;
+    }
+
+    public synchronized long getMaxMillis() {
+        return this.max;
+    }
+
+    /**
+     * @return the latency {@code percentile} percent of samples don't exceed, 0 without samples.
+     */
+    public synchronized long getPercentileMillis(final double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(this.count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += this.counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(BOUNDS[i], this.max);
+            }
+        }
+        return this.max;
+    }
+
+    public String getSummary() {
+        return String.format("%.1fs p50, %.1fs p99 of %d", getPercentileMillis(50) / 1000.0, getPercentileMillis(99) / 1000.0, getCount());
+    }
+
+    public synchronized JSONObject toJson() {
+        final JSONObject json = new JSONObject();
+        json.put("count", this.count);
+        json.put("meanMillis", getMeanMillis());
+        json.put("maxMillis", this.max);
+        json.put("p50Millis", getPercentileMillis(50));
+        json.put("p95Millis", getPercentileMillis(95));
+        json.put("p99Millis", getPercentileMillis(99));
+        final JSONArray buckets = new JSONArray();
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] > 0) {
+                final JSONObject bucket = new JSONObject();
+                bucket.put("leMillis", i < BOUNDS.length ? BOUNDS[i] : -1);
+                bucket.put("count", this.counts[i]);
+                buckets.add(bucket);
+            }
+        }
+        json.put("buckets", buckets);
+        return json;
+    }
+}
@@ -0,0 +1,134 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * How long each label takes from launching a container to its agent connecting. A launch is considered stuck once it
+ * runs {@code .factor} times past the label's 99th percentile, within {@code .minSeconds} and {@code .maxSeconds}; until
+ * a label has {@code .minLaunches} launches, after {@code .defaultSeconds}. Launches that were reset or timed out are
+ * counted with the time they ran for, so a label whose launches are all slow still raises its threshold, and every
+ * reset since the label's last successful launch doubles the threshold.
+ * <p>
+ * Each {@link LaunchPipeline.Stage} fails on its own timeout, so a launch can't run much longer than their sum; that
+ * sum is the default {@code .maxSeconds}. Raise the stage timeouts to let slow labels run longer.
+ */
+public class LaunchLatency {
+    private static final Logger LOGGER = Logger.getLogger(LaunchLatency.class.getName());
+    private static final int MIN_LAUNCHES = Integer.getInteger(LaunchLatency.class.getName() + ".minLaunches", 20);
+    private static final double FACTOR = Double.parseDouble(System.getProperty(LaunchLatency.class.getName() + ".factor", "2"));
+    private static final long DEFAULT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(LaunchLatency.class.getName() + ".defaultSeconds", 120));
+    private static final long MIN_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(LaunchLatency.class.getName() + ".minSeconds", 30));
+    private static final long MAX_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(LaunchLatency.class.getName() + ".maxSeconds", getStageTimeoutSeconds()));
+    private static final int MAX_BACKOFF = 4;
+
+    private static final Map<String, LatencyHistogram> labels = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicInteger> resets = new ConcurrentHashMap<>();
+    private static final AtomicLong stuck = new AtomicLong();
+
+    public static void record(final String label, final long millis) {
+        labels.computeIfAbsent(label, l -> new LatencyHistogram()).record(millis);
+        resets.remove(label);
+    }
+
+    /**
+     * Records a launch that was given up on after {@code millis}; it would have taken at least that long.
+     */
+    public static void recordTimeout(final String label, final long millis) {
+        labels.computeIfAbsent(label, l -> new LatencyHistogram()).record(millis);
+    }
+
+    private static void recordReset(final String label, final long millis) {
+        recordTimeout(label, millis);
+        resets.computeIfAbsent(label, l -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public static long getStuckThresholdMillis(final String label) {
+        final LatencyHistogram histogram = label == null ? null : labels.get(label);
+        long threshold = histogram == null || histogram.getCount() < MIN_LAUNCHES
+                ? DEFAULT_MILLIS
+                : Math.max(MIN_MILLIS, (long) (histogram.getPercentileMillis(99) * FACTOR));
+        final AtomicInteger labelResets = label == null ? null : resets.get(label);
+        if (labelResets != null) {
+            threshold <<= Math.min(labelResets.get(), MAX_BACKOFF);
+        }
+        return Math.min(MAX_MILLIS, threshold);
+    }
+
+    private static long getStageTimeoutSeconds() {
+        long seconds = 0;
+        for (final LaunchPipeline.Stage stage : LaunchPipeline.Stage.values()) {
+            seconds += stage.getTimeoutSeconds();
+        }
+        return seconds;
+    }
+
+    /**
+     * @return launch latencies by label, for the dashboard.
+     */
+    public static Map<String, LatencyHistogram> getLabels() {
+        return new TreeMap<>(labels);
+    }
+
+    public static long getStuck() {
+        return stuck.get();
+    }
+
+    /**
+     * Resets launches that ran past their label's stuck threshold, so the provisioning loop retries them.
+     */
+    @Extension
+    public static class Watchdog extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(Long.getLong(LaunchLatency.class.getName() + ".watchdogSeconds", 5));
+        }
+
+        @Override
+        protected void doRun() {
+            boolean reset = false;
+            for (final Queue.Item item : Jenkins.getInstance().getQueue().getItems()) {
+                final DockerSlaveInfo slaveInfo = item.getAction(DockerSlaveInfo.class);
+                if (slaveInfo != null && item instanceof Queue.BuildableItem && slaveInfo.isProvisioningInProgress()) {
+                    reset |= resetIfStuck(slaveInfo, item);
+                }
+            }
+            if (reset) {
+                ProvisioningLoop.signal("stuck launch reset");
+            }
+        }
+
+        private static boolean resetIfStuck(final DockerSlaveInfo slaveInfo, final Queue.Item item) {
+            final DockerLabelAssignmentAction lblAssignmentAction = item.getAction(DockerLabelAssignmentAction.class);
+            final Label label = item.task.getAssignedLabel();
+            final long threshold = getStuckThresholdMillis(label == null ? null : label.getName());
+            if (lblAssignmentAction == null || !slaveInfo.isComputerProvisioningStuck(threshold)) {
+                return false;
+            }
+            LOGGER.info("Launch of " + item.task.getFullDisplayName() + " stuck for more than " + TimeUnit.MILLISECONDS.toSeconds(threshold) + "s, retrying");
+            stuck.incrementAndGet();
+            if (label != null) {
+                recordReset(label.getName(), System.currentTimeMillis() - slaveInfo.getComputerLaunchTime().getTime());
+            }
+            slaveInfo.abandonLaunch(); // the old launch's completion is ignored
+            final Computer computer = Jenkins.getInstance().getComputer(lblAssignmentAction.getLabel().getName());
+            if (computer instanceof DockerComputer) {
+                Computer.threadPoolForRemoting.submit(((DockerComputer) computer)::delete);
+            }
+            return true;
+        }
+    }
+}
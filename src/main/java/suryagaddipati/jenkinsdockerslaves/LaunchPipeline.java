@@ -0,0 +1,134 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Stages of a container launch. Every stage runs its docker calls on its own bounded pool, so a slow stage queues
+ * work instead of parking an unbounded number of remoting threads, and every stage fails with a
+ * {@link TimeoutException} once it runs past its timeout. A call that times out is interrupted, and a result it
+ * still returns afterwards is handed to the caller's cleanup. Calls go through {@link CircuitBreaker#DOCKER}.
+ */
+public class LaunchPipeline {
+
+    public enum Stage {
+        CREATE(10, 120),
+        WAIT(10, 60),
+        INSPECT(10, 30),
+        START(10, 60),
+        CONNECT(0, 180);
+
+        private final int parallelism;
+        private final long timeoutSeconds;
+        private ExecutorService executor;
+
+        Stage(final int parallelism, final long timeoutSeconds) {
+            final String property = LaunchPipeline.class.getName() + "." + name().toLowerCase();
+            this.parallelism = Integer.getInteger(property + ".parallelism", parallelism);
+            this.timeoutSeconds = Long.getLong(property + ".timeoutSeconds", timeoutSeconds);
+        }
+
+        private synchronized ExecutorService getExecutor() {
+            if (this.executor == null) {
+                final ThreadPoolExecutor pool = new ThreadPoolExecutor(this.parallelism, this.parallelism, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "LaunchPipeline." + name()));
+                pool.allowCoreThreadTimeOut(true);
+                this.executor = pool;
+            }
+            return this.executor;
+        }
+
+        public long getTimeoutSeconds() {
+            return this.timeoutSeconds;
+        }
+    }
+
+    public static <T> CompletableFuture<T> run(final Stage stage, final Supplier<T> call) {
+        return run(stage, call, null);
+    }
+
+    /**
+     * @param abandoned cleans up after a call that returned only after its stage timed out, may be null.
+     */
+    public static <T> CompletableFuture<T> run(final Stage stage, final Supplier<T> call, final Consumer<T> abandoned) {
+        final Call<T> running = new Call<>(call, abandoned);
+        return withTimeout(CircuitBreaker.DOCKER.supplyAsync(running, stage.getExecutor()), stage, running::timeOut);
+    }
+
+    public static <T> CompletableFuture<T> runWithRetry(final Stage stage, final Supplier<T> call) {
+        return Retry.withBackoff(() -> run(stage, call));
+    }
+
+    public static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final Stage stage) {
+        return withTimeout(future, stage, null);
+    }
+
+    private static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final Stage stage, final Runnable onTimeout) {
+        final ScheduledFuture<?> timeout = Timer.get().schedule(() -> {
+            if (future.completeExceptionally(new TimeoutException(stage + " did not finish in " + stage.getTimeoutSeconds() + "s")) && onTimeout != null) {
+                onTimeout.run();
+            }
+        }, stage.getTimeoutSeconds(), TimeUnit.SECONDS);
+        future.whenComplete((result, error) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * A docker call that can be interrupted by its stage's timeout.
+     */
+    private static class Call<T> implements Supplier<T> {
+        private final Supplier<T> call;
+        private final Consumer<T> abandoned;
+        private Thread thread;
+        private boolean timedOut;
+
+        Call(final Supplier<T> call, final Consumer<T> abandoned) {
+            this.call = call;
+            this.abandoned = abandoned;
+        }
+
+        @Override
+        public T get() {
+            synchronized (this) {
+                if (this.timedOut) {
+                    throw new CancellationException("timed out before it started");
+                }
+                this.thread = Thread.currentThread();
+            }
+            T result = null;
+            try {
+                result = this.call.get();
+                return result;
+            } finally {
+                final boolean late;
+                synchronized (this) {
+                    this.thread = null;
+                    late = this.timedOut;
+                    Thread.interrupted(); // don't leak our interrupt into the pool
+                }
+                if (late && result != null && this.abandoned != null) {
+                    this.abandoned.accept(result);
+                }
+            }
+        }
+
+        synchronized void timeOut() {
+            this.timedOut = true;
+            if (this.thread != null) {
+                this.thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.model.Bind;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A {@link LabelConfiguration} parsed once: its label atoms, env, host binds, cache dirs and resource limits are split
+ * when the configuration is saved instead of on every launch. Host binds that don't parse are logged and left out.
+ */
+public class LaunchTemplate {
+    private static final Logger LOGGER = Logger.getLogger(LaunchTemplate.class.getName());
+
+    private final LabelConfiguration labelConfiguration;
+    private final Set<LabelAtom> atoms;
+    private final String[] env;
+    private final Bind[] hostBinds;
+    private final String[] cacheDirs;
+    private final ResourceHistory.Allocation limits;
+
+    LaunchTemplate(final LabelConfiguration labelConfiguration) {
+        this.labelConfiguration = labelConfiguration;
+        this.atoms = Label.parse(labelConfiguration.getLabel());
+        this.env = labelConfiguration.getEnvVarsConfig();
+        final List<Bind> binds = new ArrayList<>();
+        for (final String bind : labelConfiguration.getHostBindsConfig()) {
+            if (bind.isEmpty()) {
+                continue;
+            }
+            try {
+                binds.add(parseBind(bind));
+            } catch (final IllegalArgumentException e) {
+                LOGGER.warning("Ignoring host bind of " + labelConfiguration.getLabel() + ": " + e.getMessage());
+            }
+        }
+        this.hostBinds = binds.toArray(new Bind[binds.size()]);
+        this.cacheDirs = labelConfiguration.getCacheDirs();
+        this.limits = new ResourceHistory.Allocation(labelConfiguration.getMaxCpuShares(), labelConfiguration.getMaxMemory());
+    }
+
+    /**
+     * @param bind {@code <host path>:<container path>[:<mode>]}
+     * @throws IllegalArgumentException if it doesn't parse.
+     */
+    static Bind parseBind(final String bind) {
+        final String[] parts = bind.split(":");
+        if (parts.length < 2 || parts[0].isEmpty() || !parts[1].startsWith("/")) {
+            throw new IllegalArgumentException("'" + bind + "' is not <host path>:<absolute container path>[:ro|rw]");
+        }
+        return Bind.parse(bind);
+    }
+
+    public LabelConfiguration getLabelConfiguration() {
+        return this.labelConfiguration;
+    }
+
+    boolean matches(final Label label) {
+        return label.matches(this.atoms);
+    }
+
+    public String getImage() {
+        return this.labelConfiguration.getImage();
+    }
+
+    public String[] getCacheDirs() {
+        return this.cacheDirs.clone();
+    }
+
+    /**
+     * @return the host binds, followed by {@code extra} empty slots for per launch binds.
+     */
+    public Bind[] getBinds(final int extra) {
+        final Bind[] binds = new Bind[this.hostBinds.length + extra];
+        System.arraycopy(this.hostBinds, 0, binds, 0, this.hostBinds.length);
+        return binds;
+    }
+
+    public int getHostBindCount() {
+        return this.hostBinds.length;
+    }
+
+    /**
+     * @return the label's max cpus and memory.
+     */
+    public ResourceHistory.Allocation getLimits() {
+        return this.limits;
+    }
+
+    /**
+     * Sets the parts of the container that only depend on the label.
+     */
+    public CreateContainerCmd stamp(final CreateContainerCmd containerCmd) {
+        return containerCmd.withEnv(this.env.clone());
+    }
+}
@@ -0,0 +1,147 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import net.sf.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * When each phase of getting a build onto a docker slave ended, kept with the build's {@link DockerSlaveInfo}. A phase
+ * lasts from the end of the previous one; marking a phase clears the later ones, so a retried launch only shows its
+ * last attempt. Once the build is picked up by the slave's executor its phases are added to per label histograms and
+ * no longer change.
+ */
+public class LaunchTimings {
+
+    public enum Phase {
+        QUEUE("Queue wait"),
+        REGISTRATION("Node registration"),
+        CREATE("Image pull and container create"),
+        INSPECT("Container wait and inspect"),
+        START("Container start"),
+        CONNECT("Agent download and connect"),
+        PICKUP("Executor pickup");
+
+        private final String displayName;
+
+        Phase(final String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return this.displayName;
+        }
+    }
+
+    private static final Map<String, Map<Phase, LatencyHistogram>> labels = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> totals = new ConcurrentHashMap<>();
+
+    private final String label;
+    private final long queuedSince;
+    private final long[] ends = new long[Phase.values().length];
+
+    LaunchTimings(final String label, final long queuedSince) {
+        this.label = label;
+        this.queuedSince = queuedSince;
+    }
+
+    public synchronized void mark(final Phase phase) {
+        if (this.ends[Phase.PICKUP.ordinal()] != 0) {
+            return; // already recorded
+        }
+        this.ends[phase.ordinal()] = System.currentTimeMillis();
+        for (int i = phase.ordinal() + 1; i < this.ends.length; i++) {
+            this.ends[i] = 0;
+        }
+        if (phase == Phase.PICKUP) {
+            record();
+        }
+    }
+
+    private void record() {
+        final Map<Phase, LatencyHistogram> phases = labels.computeIfAbsent(this.label, l -> new ConcurrentHashMap<>());
+        for (final Map.Entry<Phase, Long> phase : getDurations().entrySet()) {
+            phases.computeIfAbsent(phase.getKey(), p -> new LatencyHistogram()).record(phase.getValue());
+        }
+        totals.computeIfAbsent(this.label, l -> new LatencyHistogram()).record(getTotalMillis());
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    /**
+     * @return how long each phase that ended took, in order.
+     */
+    public synchronized Map<Phase, Long> getDurations() {
+        final Map<Phase, Long> durations = new EnumMap<>(Phase.class);
+        long previous = this.queuedSince;
+        for (final Phase phase : Phase.values()) {
+            final long end = this.ends[phase.ordinal()];
+            if (end != 0 && previous != 0) {
+                durations.put(phase, end - previous);
+            }
+            previous = end;
+        }
+        return durations;
+    }
+
+    public synchronized long getTotalMillis() {
+        long last = 0;
+        for (final long end : this.ends) {
+            last = Math.max(last, end);
+        }
+        return last == 0 ? 0 : last - this.queuedSince;
+    }
+
+    /**
+     * @return the label's histogram for a phase, to compare this build against; null before any build was picked up.
+     */
+    public LatencyHistogram getLabelHistogram(final Phase phase) {
+        final Map<Phase, LatencyHistogram> phases = labels.get(this.label);
+        return phases == null ? null : phases.get(phase);
+    }
+
+    /**
+     * @return phase histograms by label.
+     */
+    public static Map<String, Map<Phase, LatencyHistogram>> getLabels() {
+        final Map<String, Map<Phase, LatencyHistogram>> byLabel = new TreeMap<>();
+        for (final Map.Entry<String, Map<Phase, LatencyHistogram>> label : labels.entrySet()) {
+            byLabel.put(label.getKey(), new EnumMap<>(label.getValue()));
+        }
+        return byLabel;
+    }
+
+    public static JSONObject toJson() {
+        final Map<String, Map<Phase, LatencyHistogram>> byLabel = getLabels();
+        final Map<String, LatencyHistogram> launches = LaunchLatency.getLabels();
+        final Set<String> names = new TreeSet<>(byLabel.keySet());
+        names.addAll(launches.keySet());
+        final JSONObject json = new JSONObject();
+        for (final String label : names) {
+            final JSONObject labelJson = new JSONObject();
+            final JSONObject phases = new JSONObject();
+            if (byLabel.containsKey(label)) {
+                for (final Map.Entry<Phase, LatencyHistogram> phase : byLabel.get(label).entrySet()) {
+                    phases.put(phase.getKey().name().toLowerCase(), phase.getValue().toJson());
+                }
+            }
+            labelJson.put("phases", phases);
+            final LatencyHistogram total = totals.get(label);
+            if (total != null) {
+                labelJson.put("total", total.toJson());
+            }
+            if (launches.containsKey(label)) {
+                labelJson.put("launch", launches.get(label).toJson());
+            }
+            labelJson.put("stuckThresholdMillis", LaunchLatency.getStuckThresholdMillis(label));
+            json.put(label, labelJson);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,105 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.model.Node;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces node additions: nodes registered within {@link #WINDOW_MILLIS} of each other are added to Jenkins with a
+ * single node list update instead of one lock/save cycle per node. {@link #deregister(List)} removes nodes the same way.
+ * Until its batch is added a node is only {@link #isPending(String) pending}, not yet known to Jenkins.
+ */
+public class NodeRegistrar {
+    private static final Logger LOGGER = Logger.getLogger(NodeRegistrar.class.getName());
+    private static final long WINDOW_MILLIS = Long.getLong(NodeRegistrar.class.getName() + ".windowMillis", 250);
+
+    private static final ConcurrentLinkedQueue<Node> pending = new ConcurrentLinkedQueue<>();
+    private static final Set<String> pendingNames = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    public static void register(final Node node) {
+        pendingNames.add(node.getNodeName());
+        pending.add(node);
+        if (flushScheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(NodeRegistrar::flush, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if a node of that name was registered but isn't added to Jenkins yet.
+     */
+    public static boolean isPending(final String name) {
+        return pendingNames.contains(name);
+    }
+
+    public static void deregister(final List<Node> nodes) {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        try {
+            Queue.withLock((Callable<Void>) () -> {
+                final Jenkins jenkins = Jenkins.getInstance();
+                final List<Node> remaining = new ArrayList<>(jenkins.getNodes());
+                remaining.removeAll(nodes);
+                jenkins.setNodes(remaining);
+                return null;
+            });
+        } catch (final Exception e) {
+            LOGGER.log(Level.INFO, "Batch removal of " + nodes.size() + " nodes failed, removing them one by one", e);
+            for (final Node node : nodes) {
+                try {
+                    Jenkins.getInstance().removeNode(node);
+                } catch (final IOException e1) {
+                    LOGGER.log(Level.INFO, "couldn't remove node " + node.getNodeName(), e1);
+                }
+            }
+        }
+    }
+
+    private static void flush() {
+        flushScheduled.set(false);
+        final List<Node> batch = new ArrayList<>();
+        for (Node node = pending.poll(); node != null; node = pending.poll()) {
+            batch.add(node);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Queue.withLock((Callable<Void>) () -> {
+                final Jenkins jenkins = Jenkins.getInstance();
+                final List<Node> nodes = new ArrayList<>(jenkins.getNodes());
+                nodes.addAll(batch);
+                jenkins.setNodes(nodes);
+                return null;
+            });
+            LOGGER.fine("Registered " + batch.size() + " nodes");
+        } catch (final Exception e) {
+            LOGGER.log(Level.INFO, "Batch registration of " + batch.size() + " nodes failed, adding them one by one", e);
+            for (final Node node : batch) {
+                try {
+                    Jenkins.getInstance().addNode(node);
+                } catch (final IOException e1) {
+                    LOGGER.log(Level.INFO, "couldn't add node " + node.getNodeName(), e1);
+                }
+            }
+        } finally {
+            for (final Node node : batch) {
+                pendingNames.remove(node.getNodeName());
+            }
+        }
+    }
+}
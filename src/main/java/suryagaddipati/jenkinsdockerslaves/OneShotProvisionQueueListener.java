@@ -8,7 +8,6 @@ import hudson.model.queue.QueueListener;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
-import java.util.List;
 
 @Extension
 public class OneShotProvisionQueueListener extends QueueListener {
@@ -16,15 +15,17 @@ public class OneShotProvisionQueueListener extends QueueListener {
     @Override
     public void onEnterBuildable(final Queue.BuildableItem bi) {
         final Queue.Task job = bi.task;
-        final List<String> labels = DockerSlaveConfiguration.get().getLabels();
-        if (job.getAssignedLabel() != null && labels.contains(job.getAssignedLabel().getName())) {
-            BuildScheduler.scheduleBuild(bi);
+        if (DockerSlaveConfiguration.get().canProvision(job.getAssignedLabel())) {
+            // the provisioning loop decides when it gets a slave
+            BuildScheduler.markPending(bi);
+            ProvisioningLoop.signal("buildable " + job.getFullDisplayName());
         }
     }
 
 
     @Override
     public void onLeft(final Queue.LeftItem li) {
+        FairShare.release(li);
         if (li.isCancelled()) {
             final DockerLabelAssignmentAction labelAssignmentAction = li.getAction(DockerLabelAssignmentAction.class);
             if (labelAssignmentAction != null) {
@@ -39,6 +40,7 @@ public class OneShotProvisionQueueListener extends QueueListener {
                         } catch (final IOException e) {
 //                            e.printStackTrace();
                         }
+                        ProvisioningLoop.signal("cancelled " + li.task.getFullDisplayName());
                     }
                 });
             }
@@ -0,0 +1,168 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Container;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Removes containers this master created that no longer have a live {@link DockerComputer}, and docker slaves that
+ * are offline without a launch in progress, once they are older than the configured grace period. Containers are found
+ * with one list call filtered on {@link #LABEL_MASTER}.
+ */
+@Extension
+public class OrphanReconciler extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(OrphanReconciler.class.getName());
+
+    public static final String LABEL_MASTER = "jenkins-docker-slaves.master";
+    public static final String LABEL_CPUS = "jenkins-docker-slaves.cpus";
+    public static final String LABEL_MEMORY = "jenkins-docker-slaves.memory";
+
+    private static volatile Report lastReport;
+    private static final Report totals = new Report();
+
+    public OrphanReconciler() {
+        super("Docker orphan reconciler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(Long.getLong(OrphanReconciler.class.getName() + ".periodMinutes", 5));
+    }
+
+    public static Map<String, String> getContainerLabels(final Integer cpus, final Long memory) {
+        final Map<String, String> labels = new HashMap<>();
+        labels.put(LABEL_MASTER, Jenkins.getInstance().getLegacyInstanceId());
+        labels.put(LABEL_CPUS, String.valueOf(cpus));
+        labels.put(LABEL_MEMORY, String.valueOf(memory));
+        return labels;
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) {
+        if (CircuitBreaker.DOCKER.isOpen()) {
+            return; // can't tell live containers from dead ones
+        }
+        final Jenkins jenkins = Jenkins.getInstance();
+        final long graceMillis = TimeUnit.MINUTES.toMillis(DockerSlaveConfiguration.get().getOrphanGracePeriodMinutes());
+        final long now = System.currentTimeMillis();
+
+        final List<Container> containers;
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            containers = lease.getClient().listContainersCmd()
+                    .withShowAll(true)
+                    .withLabelFilter(Collections.singletonMap(LABEL_MASTER, jenkins.getLegacyInstanceId()))
+                    .exec();
+        }
+        CpusetAllocator.sync(containers);
+
+        final List<Node> deadNodes = new ArrayList<>();
+        final Set<String> deadNames = new HashSet<>();
+        for (final Computer computer : jenkins.getComputers()) {
+            if (computer instanceof DockerComputer && computer.isOffline() && !computer.isConnecting() && !isLaunching((DockerComputer) computer)
+                    && now - ((DockerComputer) computer).getCreated() > graceMillis && computer.getNode() != null) {
+                deadNodes.add(computer.getNode());
+                deadNames.add(computer.getName());
+            }
+        }
+
+        final Report report = new Report();
+        for (final Container container : containers) {
+            final String[] path = container.getNames()[0].split("/"); // /<swarm node>/<computer name>
+            final String name = path[path.length - 1];
+            final boolean live = jenkins.getComputer(name) instanceof DockerComputer && !deadNames.contains(name);
+            if (!live && now - TimeUnit.SECONDS.toMillis(container.getCreated()) > graceMillis) {
+                Reaper.get().submit(container.getId(), path.length > 2 ? path[1] : "", null, System.out);
+                report.add(container.getLabels());
+            }
+        }
+        NodeRegistrar.deregister(deadNodes);
+        report.nodes = deadNodes.size();
+
+        lastReport = report;
+        totals.merge(report);
+        if (report.containers > 0 || report.nodes > 0) {
+            LOGGER.info("Reclaimed " + report.containers + " orphaned containers (" + report.cpus + " cpus, "
+                    + report.memory + " bytes) and " + report.nodes + " dead slaves");
+        }
+    }
+
+    /**
+     * The launch runs asynchronously, so the computer isn't connecting until the agent dials in.
+     */
+    private static boolean isLaunching(final DockerComputer computer) {
+        final DockerSlaveInfo slaveInfo = computer.getSlaveInfo();
+        return slaveInfo != null && slaveInfo.isProvisioningInProgress();
+    }
+
+    public static Report getLastReport() {
+        return lastReport;
+    }
+
+    public static Report getTotals() {
+        return totals;
+    }
+
+    public static class Report {
+        private final Date time = new Date();
+        private int containers;
+        private int nodes;
+        private long cpus;
+        private long memory;
+
+        private void add(final Map<String, String> labels) {
+            this.containers++;
+            this.cpus += parse(labels.get(LABEL_CPUS));
+            this.memory += parse(labels.get(LABEL_MEMORY));
+        }
+
+        private synchronized void merge(final Report report) {
+            this.containers += report.containers;
+            this.nodes += report.nodes;
+            this.cpus += report.cpus;
+            this.memory += report.memory;
+        }
+
+        private static long parse(final String value) {
+            try {
+                return value == null ? 0 : Long.parseLong(value);
+            } catch (final NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        public Date getTime() {
+            return this.time;
+        }
+
+        public int getContainers() {
+            return this.containers;
+        }
+
+        public int getNodes() {
+            return this.nodes;
+        }
+
+        public long getCpus() {
+            return this.cpus;
+        }
+
+        public long getMemory() {
+            return this.memory;
+        }
+    }
+}
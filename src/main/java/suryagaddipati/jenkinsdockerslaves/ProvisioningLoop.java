@@ -0,0 +1,70 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.model.Queue;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scans the queue for docker items that still need a slave. Scans run on a single thread and are requested through
+ * {@link #signal(String)}; signals that arrive while a scan is already pending are coalesced into it. Items are handed
+ * to the scheduler in {@link FairShare} order. Launches in progress are left to {@link LaunchLatency.Watchdog}.
+ */
+public class ProvisioningLoop {
+    private static final Logger LOGGER = Logger.getLogger(ProvisioningLoop.class.getName());
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new NamingThreadFactory(new DaemonThreadFactory(), "ProvisioningLoop"));
+    private static final AtomicBoolean scanPending = new AtomicBoolean(false);
+
+    public static void signal(final String reason) {
+        if (scanPending.compareAndSet(false, true)) {
+            LOGGER.fine("Queue scan requested: " + reason);
+            executor.submit(ProvisioningLoop::scan);
+        }
+    }
+
+    private static void scan() {
+        scanPending.set(false);
+        try {
+            scanQueue();
+        } catch (final Exception e) {
+            LOGGER.log(Level.INFO, "Queue scan failed", e);
+        }
+    }
+
+    private static void scanQueue() {
+        final Queue.Item[] items = Jenkins.getInstance().getQueue().getItems();
+        final DockerSlaveConfiguration slaveConfig = DockerSlaveConfiguration.get();
+        final List<Queue.BuildableItem> pending = new ArrayList<>();
+        for (int i = items.length - 1; i >= 0; i--) { //reverse order
+            final Queue.Item item = items[i];
+            final DockerSlaveInfo slaveInfo = item.getAction(DockerSlaveInfo.class);
+            if (slaveInfo != null && item instanceof Queue.BuildableItem) {
+                if (!slaveInfo.isProvisioningInProgress() && canSchedule(slaveConfig, item, slaveInfo)) {
+                    pending.add((Queue.BuildableItem) item);
+                }
+            }
+        }
+        for (final Queue.BuildableItem item : FairShare.order(pending)) {
+            BuildScheduler.scheduleBuild(item);
+        }
+    }
+
+    private static boolean canSchedule(final DockerSlaveConfiguration slaveConfig, final Queue.Item item, final DockerSlaveInfo slaveInfo) {
+        if (!(slaveInfo.getProvisioningAttempts() > slaveConfig.getMaxProvisioningAttempts())) {
+            LOGGER.fine("Scheduling build: " + item.task);
+            return true;
+        }
+        LOGGER.info("Ignoring " + item.task + " since it exceeded max provisioning attempts. Attempts :" + slaveInfo.getProvisioningAttempts());
+        FairShare.release(item);
+        return false;
+    }
+}
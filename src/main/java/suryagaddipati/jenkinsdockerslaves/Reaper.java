@@ -0,0 +1,218 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Statistics;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static suryagaddipati.jenkinsdockerslaves.ExceptionHandlingHelpers.executeSliently;
+import static suryagaddipati.jenkinsdockerslaves.ExceptionHandlingHelpers.executeSlientlyWithLogging;
+
+/**
+ * Tears down containers of finished slaves: collects stats, unpauses, kills and removes them. Teardowns run on one
+ * bounded pool with at most {@link #PER_NODE_PARALLELISM} batches per swarm node; containers that queue up behind a
+ * busy node are torn down together in batches of up to {@link #BATCH_SIZE}.
+ */
+public class Reaper {
+    private static final Logger LOGGER = Logger.getLogger(Reaper.class.getName());
+    private static final int PARALLELISM = Integer.getInteger(Reaper.class.getName() + ".parallelism", 8);
+    private static final int PER_NODE_PARALLELISM = Integer.getInteger(Reaper.class.getName() + ".perNodeParallelism", 2);
+    private static final int BATCH_SIZE = Integer.getInteger(Reaper.class.getName() + ".batchSize", 10);
+
+    private static final Reaper INSTANCE = new Reaper();
+
+    private final ExecutorService executor;
+    private final Map<String, Deque<Teardown>> pending = new HashMap<>();
+    private final Map<String, Integer> active = new HashMap<>();
+    private int queueDepth;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+    private Reaper() {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "Reaper"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public static Reaper get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param run build whose stats should be recorded, or null
+     */
+    public void submit(final DockerComputer computer, final Run run, final PrintStream logger) {
+        if (computer.getContainerId() == null) {
+            return; // container was never created
+        }
+        submit(computer.getContainerId(), computer.getSwarmNodeName() == null ? "" : computer.getSwarmNodeName(), run, logger);
+        final DockerSlaveInfo slaveInfo = run == null ? null : (DockerSlaveInfo) run.getAction(DockerSlaveInfo.class);
+        if (slaveInfo != null && slaveInfo.getCacheVolumeName() != null) {
+            CacheAffinity.recordTeardown(run, computer.getSwarmNodeName());
+        }
+    }
+
+    public void submit(final String containerId, final String node, final Run run, final PrintStream logger) {
+        synchronized (this) {
+            this.pending.computeIfAbsent(node, n -> new ArrayDeque<>()).add(new Teardown(containerId, run, logger));
+            this.queueDepth++;
+            dispatch(node);
+        }
+    }
+
+    private synchronized void dispatch(final String node) {
+        final Deque<Teardown> queue = this.pending.get(node);
+        while (queue != null && !queue.isEmpty() && this.active.getOrDefault(node, 0) < PER_NODE_PARALLELISM) {
+            final List<Teardown> batch = new ArrayList<>();
+            while (!queue.isEmpty() && batch.size() < BATCH_SIZE) {
+                batch.add(queue.poll());
+            }
+            this.queueDepth -= batch.size();
+            this.active.merge(node, 1, Integer::sum);
+            this.executor.submit(() -> tearDown(node, batch));
+        }
+        if (queue != null && queue.isEmpty()) {
+            this.pending.remove(node);
+        }
+    }
+
+    private void finished(final String node) {
+        synchronized (this) {
+            this.active.merge(node, -1, Integer::sum);
+            if (this.active.get(node) <= 0) {
+                this.active.remove(node);
+            }
+            dispatch(node);
+        }
+    }
+
+    private void tearDown(final String node, final List<Teardown> batch) {
+        final List<CompletableFuture<Void>> removals = new ArrayList<>();
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final DockerClient dockerClient = lease.getClient();
+            final List<Teardown> present = new ArrayList<>();
+            for (final Teardown teardown : batch) {
+                try {
+                    final InspectContainerResponse container = dockerClient.inspectContainerCmd(teardown.containerId).exec();
+                    executeSlientlyWithLogging(() -> gatherStats(dockerClient, teardown), teardown.logger); // No big deal if we can't get stats
+                    if (container.getState().getPaused()) {
+                        executeSlientlyWithLogging(() -> dockerClient.unpauseContainerCmd(teardown.containerId).exec(), teardown.logger);
+                    }
+                    present.add(teardown);
+                } catch (final NotFoundException e) {
+                    done(teardown); //Ignore if container is already gone
+                } catch (final Exception e) {
+                    LOGGER.log(Level.INFO, "couldn't inspect container " + teardown.containerId + ", removing it anyway", e);
+                    present.add(teardown);
+                }
+            }
+            for (final Teardown teardown : present) {
+                executeSliently(() -> dockerClient.killContainerCmd(teardown.containerId).exec());
+            }
+            for (final Teardown teardown : present) {
+                removals.add(remove(teardown));
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.INFO, "teardown of " + batch.size() + " containers on '" + node + "' failed", e);
+        }
+        CompletableFuture.allOf(removals.toArray(new CompletableFuture[removals.size()]))
+                .whenComplete((result, error) -> finished(node));
+    }
+
+    private CompletableFuture<Void> remove(final Teardown teardown) {
+        return Retry.withBackoff(() -> CircuitBreaker.DOCKER.supplyAsync(() -> {
+            try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+                return lease.getClient().removeContainerCmd(teardown.containerId).withForce(true).exec();
+            }
+        }, this.executor)).whenComplete((removed, error) -> {
+            if (error == null) {
+                teardown.logger.println("Removed Container " + teardown.containerId);
+                done(teardown);
+                ProvisioningLoop.signal("container removed " + teardown.containerId);
+            } else {
+                LOGGER.log(Level.INFO, "couldn't remove container " + teardown.containerId, error);
+            }
+        });
+    }
+
+    private void gatherStats(final DockerClient dockerClient, final Teardown teardown) throws IOException {
+        final Run run = teardown.run;
+        final DockerSlaveInfo slaveInfo = run == null ? null : (DockerSlaveInfo) run.getAction(DockerSlaveInfo.class);
+        if (slaveInfo != null) {
+            if (slaveInfo.getResourceSamples() == null) {
+                // only builds that finished before the sampler got to them need a snapshot here
+                final Statistics stats = dockerClient.statsCmd(teardown.containerId).exec();
+                slaveInfo.addSample(System.currentTimeMillis(), stats);
+            }
+            slaveInfo.saveMetrics();
+            ResourceHistory.record(run, slaveInfo);
+        }
+    }
+
+    private void done(final Teardown teardown) {
+        final long latency = System.currentTimeMillis() - teardown.submitted;
+        this.completed.incrementAndGet();
+        this.totalLatencyMillis.addAndGet(latency);
+        this.maxLatencyMillis.accumulateAndGet(latency, Math::max);
+    }
+
+    public synchronized int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    public synchronized int getActive() {
+        int batches = 0;
+        for (final int count : this.active.values()) {
+            batches += count;
+        }
+        return batches;
+    }
+
+    public long getCompleted() {
+        return this.completed.get();
+    }
+
+    public long getAverageLatencyMillis() {
+        final long completed = getCompleted();
+        return completed == 0 ? 0 : this.totalLatencyMillis.get() / completed;
+    }
+
+    public long getMaxLatencyMillis() {
+        return this.maxLatencyMillis.get();
+    }
+
+    private static class Teardown {
+        private final String containerId;
+        private final Run run;
+        private final PrintStream logger;
+        private final long submitted = System.currentTimeMillis();
+
+        private Teardown(final String containerId, final Run run, final PrintStream logger) {
+            this.containerId = containerId;
+            this.run = run;
+            this.logger = logger;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resource usage of the last {@link #RUNS} successful builds of every job on a dynamically allocated label, persisted in
+ * {@code docker-slaves-resource-history.xml}. New builds get the 95th percentile of the observed peaks plus headroom,
+ * one more cpu than a recent build that was throttled got, half as much memory again if they came close to their limit,
+ * and never more than the label's limits. Once the throttled builds age out of the last few the allocation follows the
+ * observed usage back down. History of deleted jobs is dropped when the file is next saved.
+ */
+public class ResourceHistory {
+    private static final Logger LOGGER = Logger.getLogger(ResourceHistory.class.getName());
+    private static final int RUNS = Integer.getInteger(ResourceHistory.class.getName() + ".runs", 10);
+    private static final int MIN_RUNS = Integer.getInteger(ResourceHistory.class.getName() + ".minRuns", 3);
+    private static final double MEMORY_HEADROOM = 1.25;
+    private static final long MIN_MEMORY = Bytes.MB(64);
+
+    private static ResourceHistory instance;
+
+    private Map<String, List<Usage>> jobs = new ConcurrentHashMap<>(); // lists are replaced, never modified, so saves can serialize them
+    private transient AtomicBoolean saveScheduled = new AtomicBoolean(false);
+
+    public static synchronized ResourceHistory get() {
+        if (instance == null) {
+            instance = new ResourceHistory();
+            final XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (final IOException e) {
+                    LOGGER.log(Level.INFO, "couldn't load " + file, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private Object readResolve() {
+        this.saveScheduled = new AtomicBoolean(false);
+        return this;
+    }
+
+    public static Allocation allocate(final Queue.Task task, final LabelConfiguration labelConfiguration) {
+        return allocate(task, labelConfiguration, new Allocation(labelConfiguration.getMaxCpuShares(), labelConfiguration.getMaxMemory()));
+    }
+
+    public static Allocation allocate(final Queue.Task task, final LaunchTemplate template) {
+        return allocate(task, template.getLabelConfiguration(), template.getLimits());
+    }
+
+    private static Allocation allocate(final Queue.Task task, final LabelConfiguration labelConfiguration, final Allocation max) {
+        if (!labelConfiguration.isDynamicResourceAllocation() || task == null) {
+            return max;
+        }
+        return get().allocate(getKey(task), max);
+    }
+
+    private Allocation allocate(final String job, final Allocation max) {
+        final List<Usage> history = getHistory(job);
+        if (history.size() < MIN_RUNS) {
+            return max;
+        }
+        final long[] peakMemory = new long[history.size()];
+        final double[] cpus = new double[history.size()];
+        int throttledCpus = 0;
+        long nearLimitMemory = 0;
+        for (int i = 0; i < history.size(); i++) {
+            final Usage usage = history.get(i);
+            peakMemory[i] = usage.peakMemory;
+            cpus[i] = usage.cpuPercentile / 100;
+            if (i >= history.size() - MIN_RUNS) {
+                if (usage.throttled) {
+                    throttledCpus = Math.max(throttledCpus, usage.allocatedCpus + 1);
+                }
+                if (usage.allocatedMemory > 0 && usage.peakMemory >= usage.allocatedMemory * 0.9) {
+                    nearLimitMemory = Math.max(nearLimitMemory, (long) (usage.allocatedMemory * 1.5)); // close to an OOM
+                }
+            }
+        }
+        Arrays.sort(peakMemory);
+        Arrays.sort(cpus);
+
+        long memory = Math.max(MIN_MEMORY, Math.max(nearLimitMemory, (long) (peakMemory[percentileIndex(peakMemory.length, 95)] * MEMORY_HEADROOM)));
+        int cpu = Math.max(1, (int) Math.ceil(cpus[percentileIndex(cpus.length, 95)]));
+        cpu = Math.max(cpu, throttledCpus);
+        if (max.memory > 0) {
+            memory = Math.min(memory, max.memory);
+        }
+        if (max.cpus > 0) {
+            cpu = Math.min(cpu, max.cpus);
+        }
+        return new Allocation(cpu, memory);
+    }
+
+    public static void record(final Run run, final DockerSlaveInfo slaveInfo) {
+        if (run.getResult() != Result.SUCCESS || slaveInfo.getMaxMemoryUsage() == null) {
+            return;
+        }
+        final ResourceSamples samples = slaveInfo.getResourceSamples();
+        final Usage usage = new Usage(run.getNumber(),
+                slaveInfo.getAllocatedCPUShares() == null ? 1 : slaveInfo.getAllocatedCPUShares(),
+                slaveInfo.getMemoryReservation() == null ? 0 : slaveInfo.getMemoryReservation(),
+                samples == null ? slaveInfo.getMaxMemoryUsage() : Math.max(samples.getPeakMemory(), slaveInfo.getMaxMemoryUsage()),
+                samples == null ? 0 : samples.getCpuPercentile(95),
+                slaveInfo.wasThrottled());
+        get().add(getKey(run), usage);
+    }
+
+    private void add(final String job, final Usage usage) {
+        this.jobs.compute(job, (j, previous) -> {
+            final List<Usage> history = new ArrayList<>(previous == null ? new ArrayList<>() : previous);
+            history.add(usage);
+            return history.size() > RUNS ? new ArrayList<>(history.subList(history.size() - RUNS, history.size())) : history;
+        });
+        if (this.saveScheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(this::save, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    public List<Usage> getHistory(final String job) {
+        final List<Usage> history = this.jobs.get(job);
+        return history == null ? new ArrayList<>() : new ArrayList<>(history);
+    }
+
+    private void save() {
+        this.saveScheduled.set(false);
+        final Jenkins jenkins = Jenkins.getInstance();
+        this.jobs.keySet().removeIf(job -> jenkins.getItemByFullName(job, Job.class) == null);
+        try {
+            getConfigFile().write(this);
+        } catch (final IOException e) {
+            LOGGER.log(Level.INFO, "couldn't save resource history", e);
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getInstance().getRootDir(), "docker-slaves-resource-history.xml"));
+    }
+
+    static String getKey(final Queue.Task task) {
+        final Queue.Task owner = task.getOwnerTask();
+        return owner instanceof Job ? ((Job) owner).getFullName() : owner.getFullDisplayName();
+    }
+
+    /**
+     * @return the same key as the build's task, e.g. the matrix project for a matrix configuration's build.
+     */
+    static String getKey(final Run run) {
+        final Job job = run.getParent();
+        return job instanceof Queue.Task ? getKey((Queue.Task) job) : job.getFullName();
+    }
+
+    private static int percentileIndex(final int length, final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * length) - 1;
+        return Math.max(0, Math.min(length - 1, rank));
+    }
+
+    public static class Allocation {
+        private final int cpus;
+        private final long memory;
+
+        public Allocation(final int cpus, final long memory) {
+            this.cpus = cpus;
+            this.memory = memory;
+        }
+
+        public int getCpus() {
+            return this.cpus;
+        }
+
+        public long getMemory() {
+            return this.memory;
+        }
+    }
+
+    public static class Usage {
+        private final int number;
+        private final int allocatedCpus;
+        private final long allocatedMemory;
+        private final long peakMemory;
+        private final double cpuPercentile;
+        private final boolean throttled;
+
+        Usage(final int number, final int allocatedCpus, final long allocatedMemory, final long peakMemory, final double cpuPercentile, final boolean throttled) {
+            this.number = number;
+            this.allocatedCpus = allocatedCpus;
+            this.allocatedMemory = allocatedMemory;
+            this.peakMemory = peakMemory;
+            this.cpuPercentile = cpuPercentile;
+            this.throttled = throttled;
+        }
+
+        public int getNumber() {
+            return this.number;
+        }
+
+        public int getAllocatedCpus() {
+            return this.allocatedCpus;
+        }
+
+        public long getAllocatedMemory() {
+            return this.allocatedMemory;
+        }
+
+        public long getPeakMemory() {
+            return this.peakMemory;
+        }
+
+        public double getCpuPercentile() {
+            return this.cpuPercentile;
+        }
+
+        public boolean isThrottled() {
+            return this.throttled;
+        }
+    }
+}
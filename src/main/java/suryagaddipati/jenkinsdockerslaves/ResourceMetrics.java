@@ -0,0 +1,171 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Statistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resource usage of a build's container. Kept out of build.xml: it is written to {@link #FILE_NAME} in the build
+ * directory as a few primitive values and arrays, and only read when something asks for it.
+ */
+public class ResourceMetrics {
+    static final String FILE_NAME = "docker-slave-metrics.bin";
+    private static final int VERSION = 2;
+    private static final double THROTTLED_RATIO = Double.parseDouble(System.getProperty(ResourceMetrics.class.getName() + ".throttledRatio", "0.1"));
+
+    private Long maxMemoryUsage;
+    private long[] perCpuUsage;
+    private Long throttledTime;
+    private Long throttledPeriods;
+    private Long periods;
+    private ResourceSamples samples;
+
+    ResourceMetrics() {
+    }
+
+    ResourceMetrics(final Long maxMemoryUsage, final List<? extends Number> perCpuUsage, final Long throttledTime) {
+        this.maxMemoryUsage = maxMemoryUsage;
+        this.perCpuUsage = toArray(perCpuUsage);
+        this.throttledTime = throttledTime;
+    }
+
+    synchronized void addSample(final long time, final Statistics stats) {
+        if (this.samples == null) {
+            this.samples = new ResourceSamples();
+        }
+        this.samples.add(time, stats);
+        setStats(stats);
+    }
+
+    synchronized void setStats(final Statistics stats) {
+        final Map<String, Object> memoryStats = stats.getMemoryStats();
+        if (memoryStats != null && memoryStats.get("max_usage") instanceof Number) {
+            this.maxMemoryUsage = ((Number) memoryStats.get("max_usage")).longValue();
+        }
+        final Map<String, Object> cpuStats = stats.getCpuStats();
+        if (cpuStats != null) {
+            final Map<String, Object> cpuUsage = (Map<String, Object>) cpuStats.get("cpu_usage");
+            if (cpuUsage != null && cpuUsage.get("percpu_usage") != null) {
+                this.perCpuUsage = toArray((List<? extends Number>) cpuUsage.get("percpu_usage"));
+            }
+            final Map<String, Object> throttlingData = (Map<String, Object>) cpuStats.get("throttling_data");
+            if (throttlingData != null && throttlingData.get("throttled_time") instanceof Number) {
+                this.throttledTime = ((Number) throttlingData.get("throttled_time")).longValue();
+            }
+            if (throttlingData != null && throttlingData.get("periods") instanceof Number && throttlingData.get("throttled_periods") instanceof Number) {
+                this.periods = ((Number) throttlingData.get("periods")).longValue();
+                this.throttledPeriods = ((Number) throttlingData.get("throttled_periods")).longValue();
+            }
+        }
+    }
+
+    synchronized Long getMaxMemoryUsage() {
+        return this.maxMemoryUsage;
+    }
+
+    synchronized long[] getPerCpuUsage() {
+        return this.perCpuUsage;
+    }
+
+    synchronized Long getThrottledTime() {
+        return this.throttledTime;
+    }
+
+    /**
+     * @return share of the cfs periods the container ran in that it was throttled in, or null if unknown.
+     */
+    synchronized Double getThrottledRatio() {
+        if (this.periods == null || this.throttledPeriods == null || this.periods == 0) {
+            return null;
+        }
+        return (double) this.throttledPeriods / this.periods;
+    }
+
+    /**
+     * @return whether the container was throttled in at least {@code .throttledRatio} of its periods. A few throttled
+     * periods, e.g. while a JVM starts, don't count.
+     */
+    synchronized boolean isThrottled() {
+        final Double ratio = getThrottledRatio();
+        return ratio != null && ratio >= THROTTLED_RATIO;
+    }
+
+    synchronized ResourceSamples getSamples() {
+        return this.samples;
+    }
+
+    synchronized void write(final File file) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeLong(this.maxMemoryUsage == null ? -1 : this.maxMemoryUsage);
+            out.writeLong(this.throttledTime == null ? -1 : this.throttledTime);
+            out.writeLong(this.throttledPeriods == null ? -1 : this.throttledPeriods);
+            out.writeLong(this.periods == null ? -1 : this.periods);
+            out.writeInt(this.perCpuUsage == null ? -1 : this.perCpuUsage.length);
+            if (this.perCpuUsage != null) {
+                for (final long usage : this.perCpuUsage) {
+                    out.writeLong(usage);
+                }
+            }
+            out.writeBoolean(this.samples != null);
+            if (this.samples != null) {
+                this.samples.writeTo(out);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ResourceMetrics read(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unknown metrics version " + version + " in " + file);
+            }
+            final ResourceMetrics metrics = new ResourceMetrics();
+            final long maxMemoryUsage = in.readLong();
+            metrics.maxMemoryUsage = maxMemoryUsage < 0 ? null : maxMemoryUsage;
+            final long throttledTime = in.readLong();
+            metrics.throttledTime = throttledTime < 0 ? null : throttledTime;
+            if (version >= 2) {
+                final long throttledPeriods = in.readLong();
+                metrics.throttledPeriods = throttledPeriods < 0 ? null : throttledPeriods;
+                final long periods = in.readLong();
+                metrics.periods = periods < 0 ? null : periods;
+            }
+            final int cpus = in.readInt();
+            if (cpus >= 0) {
+                metrics.perCpuUsage = new long[cpus];
+                for (int i = 0; i < cpus; i++) {
+                    metrics.perCpuUsage[i] = in.readLong();
+                }
+            }
+            if (in.readBoolean()) {
+                metrics.samples = ResourceSamples.readFrom(in);
+            }
+            return metrics;
+        }
+    }
+
+    private static long[] toArray(final List<? extends Number> values) {
+        if (values == null) {
+            return null;
+        }
+        final long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i).longValue();
+        }
+        return array;
+    }
+}
@@ -0,0 +1,81 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Statistics;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the resource usage of every running build's container into its {@link DockerSlaveInfo}. Each tick takes one
+ * non-streaming stats snapshot per container on a small bounded pool; a container whose previous sample is still in
+ * flight is skipped, so a slow daemon lowers the sample rate instead of queueing work.
+ */
+@Extension
+public class ResourceSampler extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(ResourceSampler.class.getName());
+    private static final int PARALLELISM = Integer.getInteger(ResourceSampler.class.getName() + ".parallelism", 4);
+
+    private static final ExecutorService executor;
+    private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    static {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "ResourceSampler"));
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    public ResourceSampler() {
+        super("Docker container resource sampler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(Long.getLong(ResourceSampler.class.getName() + ".periodSeconds", 15));
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) {
+        if (CircuitBreaker.DOCKER.isOpen()) {
+            return;
+        }
+        for (final Computer computer : Jenkins.getInstance().getComputers()) {
+            if (computer instanceof DockerComputer) {
+                final DockerComputer dockerComputer = (DockerComputer) computer;
+                final Queue.Executable build = dockerComputer.getCurrentBuild();
+                final String containerId = dockerComputer.getContainerId();
+                if (build instanceof Run && containerId != null && ((Run) build).getAction(DockerSlaveInfo.class) != null
+                        && inFlight.add(containerId)) {
+                    final DockerSlaveInfo slaveInfo = (DockerSlaveInfo) ((Run) build).getAction(DockerSlaveInfo.class);
+                    executor.submit(() -> sample(containerId, slaveInfo));
+                }
+            }
+        }
+    }
+
+    private static void sample(final String containerId, final DockerSlaveInfo slaveInfo) {
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final Statistics stats = lease.getClient().statsCmd(containerId).exec();
+            slaveInfo.addSample(System.currentTimeMillis(), stats);
+        } catch (final Exception e) {
+            LOGGER.log(Level.FINE, "couldn't sample " + containerId, e);
+        } finally {
+            inFlight.remove(containerId);
+        }
+    }
+}
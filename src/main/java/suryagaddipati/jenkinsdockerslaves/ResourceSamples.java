@@ -0,0 +1,204 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Statistics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resource usage of a build's container over time. The most recent {@link #CAPACITY} samples are kept in a ring buffer;
+ * peaks and totals cover every sample taken.
+ */
+public class ResourceSamples {
+    static final int CAPACITY = Integer.getInteger(ResourceSamples.class.getName() + ".capacity", 240);
+
+    private final long[] times = new long[CAPACITY];
+    private final double[] cpuPercent = new double[CAPACITY];
+    private final long[] memory = new long[CAPACITY];
+    private final long[] ioBytes = new long[CAPACITY];
+    private final long[] networkBytes = new long[CAPACITY];
+    private int next;
+    private int count;
+    private long sampled;
+
+    private long lastTime;
+    private long lastCpuUsage;
+    private double peakCpuPercent;
+    private long peakMemory;
+    private long throttledTime;
+    private long totalIoBytes;
+    private long totalNetworkBytes;
+
+    public synchronized void add(final long time, final Statistics stats) {
+        final long cpuUsage = getLong(getMap(stats.getCpuStats(), "cpu_usage"), "total_usage");
+        final double cpu = this.lastTime == 0 || time <= this.lastTime ? 0 : (cpuUsage - this.lastCpuUsage) * 100.0 / ((time - this.lastTime) * 1000000.0);
+        final long usage = getLong(stats.getMemoryStats(), "usage");
+        final long io = getIoBytes(stats);
+        final long network = getNetworkBytes(stats);
+
+        this.times[this.next] = time;
+        this.cpuPercent[this.next] = Math.max(cpu, 0);
+        this.memory[this.next] = usage;
+        this.ioBytes[this.next] = io;
+        this.networkBytes[this.next] = network;
+        this.next = (this.next + 1) % CAPACITY;
+        this.count = Math.min(this.count + 1, CAPACITY);
+        this.sampled++;
+
+        this.lastTime = time;
+        this.lastCpuUsage = cpuUsage;
+        this.peakCpuPercent = Math.max(this.peakCpuPercent, cpu);
+        this.peakMemory = Math.max(this.peakMemory, Math.max(usage, getLong(stats.getMemoryStats(), "max_usage")));
+        this.throttledTime = getLong(getMap(stats.getCpuStats(), "throttling_data"), "throttled_time");
+        this.totalIoBytes = io;
+        this.totalNetworkBytes = network;
+    }
+
+    public synchronized long getSampled() {
+        return this.sampled;
+    }
+
+    public synchronized double getPeakCpuPercent() {
+        return this.peakCpuPercent;
+    }
+
+    public synchronized double getAverageCpuPercent() {
+        double sum = 0;
+        for (int i = 0; i < this.count; i++) {
+            sum += this.cpuPercent[i];
+        }
+        return this.count == 0 ? 0 : sum / this.count;
+    }
+
+    public synchronized double getCpuPercentile(final int percentile) {
+        final double[] sorted = Arrays.copyOf(this.cpuPercent, this.count);
+        Arrays.sort(sorted);
+        return sorted.length == 0 ? 0 : sorted[index(sorted.length, percentile)];
+    }
+
+    public synchronized long getPeakMemory() {
+        return this.peakMemory;
+    }
+
+    public synchronized long getMemoryPercentile(final int percentile) {
+        final long[] sorted = Arrays.copyOf(this.memory, this.count);
+        Arrays.sort(sorted);
+        return sorted.length == 0 ? 0 : sorted[index(sorted.length, percentile)];
+    }
+
+    public synchronized long getThrottledTime() {
+        return this.throttledTime;
+    }
+
+    public synchronized long getTotalIoBytes() {
+        return this.totalIoBytes;
+    }
+
+    public synchronized long getTotalNetworkBytes() {
+        return this.totalNetworkBytes;
+    }
+
+    /**
+     * @return [time, cpu %, memory, io bytes, network bytes] rows, oldest first.
+     */
+    public synchronized Object[][] getSeries() {
+        final Object[][] series = new Object[this.count][];
+        for (int i = 0; i < this.count; i++) {
+            final int slot = (this.next - this.count + i + CAPACITY) % CAPACITY;
+            series[i] = new Object[]{this.times[slot], this.cpuPercent[slot], this.memory[slot], this.ioBytes[slot], this.networkBytes[slot]};
+        }
+        return series;
+    }
+
+    synchronized void writeTo(final DataOutputStream out) throws IOException {
+        out.writeInt(this.count);
+        for (int i = 0; i < this.count; i++) {
+            final int slot = (this.next - this.count + i + CAPACITY) % CAPACITY;
+            out.writeLong(this.times[slot]);
+            out.writeDouble(this.cpuPercent[slot]);
+            out.writeLong(this.memory[slot]);
+            out.writeLong(this.ioBytes[slot]);
+            out.writeLong(this.networkBytes[slot]);
+        }
+        out.writeLong(this.sampled);
+        out.writeLong(this.lastTime);
+        out.writeLong(this.lastCpuUsage);
+        out.writeDouble(this.peakCpuPercent);
+        out.writeLong(this.peakMemory);
+        out.writeLong(this.throttledTime);
+        out.writeLong(this.totalIoBytes);
+        out.writeLong(this.totalNetworkBytes);
+    }
+
+    static ResourceSamples readFrom(final DataInputStream in) throws IOException {
+        final ResourceSamples samples = new ResourceSamples();
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final int slot = i % CAPACITY; // keeps the newest if the capacity shrank
+            samples.times[slot] = in.readLong();
+            samples.cpuPercent[slot] = in.readDouble();
+            samples.memory[slot] = in.readLong();
+            samples.ioBytes[slot] = in.readLong();
+            samples.networkBytes[slot] = in.readLong();
+        }
+        samples.count = Math.min(count, CAPACITY);
+        samples.next = count % CAPACITY;
+        samples.sampled = in.readLong();
+        samples.lastTime = in.readLong();
+        samples.lastCpuUsage = in.readLong();
+        samples.peakCpuPercent = in.readDouble();
+        samples.peakMemory = in.readLong();
+        samples.throttledTime = in.readLong();
+        samples.totalIoBytes = in.readLong();
+        samples.totalNetworkBytes = in.readLong();
+        return samples;
+    }
+
+    private static int index(final int length, final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * length) - 1;
+        return Math.max(0, Math.min(length - 1, rank));
+    }
+
+    private static long getIoBytes(final Statistics stats) {
+        final Object entries = stats.getBlkioStats() == null ? null : stats.getBlkioStats().get("io_service_bytes_recursive");
+        long bytes = 0;
+        if (entries instanceof List) {
+            for (final Object entry : (List<?>) entries) {
+                if (entry instanceof Map && "Total".equals(((Map) entry).get("op"))) {
+                    bytes += getLong((Map<String, Object>) entry, "value");
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long getNetworkBytes(final Statistics stats) {
+        final Map<String, Object> networks = stats.getNetworks() != null ? stats.getNetworks() : stats.getNetwork();
+        long bytes = 0;
+        if (networks != null) {
+            for (final Object network : networks.values()) {
+                if (network instanceof Map) {
+                    bytes += getLong((Map<String, Object>) network, "rx_bytes") + getLong((Map<String, Object>) network, "tx_bytes");
+                }
+            }
+            if (networks.containsKey("rx_bytes")) { // single network, pre 1.21 api
+                bytes += getLong(networks, "rx_bytes") + getLong(networks, "tx_bytes");
+            }
+        }
+        return bytes;
+    }
+
+    private static Map<String, Object> getMap(final Map<String, Object> map, final String key) {
+        final Object value = map == null ? null : map.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    private static long getLong(final Map<String, Object> map, final String key) {
+        final Object value = map == null ? null : map.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
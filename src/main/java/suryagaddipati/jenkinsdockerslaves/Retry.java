@@ -0,0 +1,52 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.exception.DockerException;
+import jenkins.util.Timer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Retries asynchronous calls with exponential backoff and jitter. Waits are scheduled on {@link Timer} so no thread
+ * sleeps between attempts. Client errors (4xx) and an open {@link CircuitBreaker} are not retried.
+ */
+public class Retry {
+    private static final int MAX_ATTEMPTS = Integer.getInteger(Retry.class.getName() + ".maxAttempts", 4);
+    private static final long BASE_DELAY_MILLIS = Long.getLong(Retry.class.getName() + ".baseDelayMillis", 1000);
+    private static final long MAX_DELAY_MILLIS = Long.getLong(Retry.class.getName() + ".maxDelayMillis", 30000);
+
+    public static <T> CompletableFuture<T> withBackoff(final Supplier<CompletableFuture<T>> attempt) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(attempt, 1, result);
+        return result;
+    }
+
+    private static <T> void attempt(final Supplier<CompletableFuture<T>> attempt, final int n, final CompletableFuture<T> result) {
+        attempt.get().whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (n >= MAX_ATTEMPTS || !isRetryable(CircuitBreaker.unwrap(error))) {
+                result.completeExceptionally(CircuitBreaker.unwrap(error));
+            } else {
+                Timer.get().schedule(() -> attempt(attempt, n + 1, result), backoffMillis(n), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Half of the exponential delay is fixed, the other half random, so retries from a burst of failures spread out.
+     */
+    static long backoffMillis(final int attempt) {
+        final long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static boolean isRetryable(final Throwable error) {
+        if (error instanceof CircuitBreaker.OpenException) {
+            return false;
+        }
+        return !(error instanceof DockerException) || ((DockerException) error).getHttpStatus() >= 500;
+    }
+}
@@ -0,0 +1,148 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.core.DockerClientBuilder;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.jaxrs.DockerCmdExecFactoryImpl;
+import org.apache.http.pool.PoolStats;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long lived docker client shared by every caller. The configuration holds one reference for as long as the
+ * client is current, each {@link Lease} holds another; the underlying connection pool is closed once the client
+ * has been retired and the last lease is returned.
+ */
+public class SharedDockerClient {
+    private static final Logger LOGGER = Logger.getLogger(SharedDockerClient.class.getName());
+    private static final int MAX_CONNECTIONS = 100;
+
+    private final DockerCmdExecFactoryImpl execFactory;
+    private final DockerClient client;
+    private final String settings;
+    private final Date created = new Date();
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean retired = new AtomicBoolean(false);
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public SharedDockerClient(final DockerClientConfig config, final String settings) {
+        this.settings = settings;
+        this.execFactory = new DockerCmdExecFactoryImpl()
+                .withMaxTotalConnections(MAX_CONNECTIONS)
+                .withMaxPerRouteConnections(MAX_CONNECTIONS)
+                .withClientRequestFilters(new RequestCounter(this.requests));
+        this.client = DockerClientBuilder.getInstance(config).withDockerCmdExecFactory(this.execFactory).build();
+    }
+
+    public String getSettings() {
+        return this.settings;
+    }
+
+    public Lease acquire() {
+        while (true) {
+            final int current = this.references.get();
+            if (current == 0) {
+                return null;
+            }
+            if (this.references.compareAndSet(current, current + 1)) {
+                this.leases.incrementAndGet();
+                return new Lease();
+            }
+        }
+    }
+
+    public void retire() {
+        if (this.retired.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    private void release() {
+        if (this.references.decrementAndGet() == 0) {
+            try {
+                this.client.close();
+            } catch (final IOException e) {
+                LOGGER.log(Level.INFO, "couldn't close docker client", e);
+            }
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats();
+    }
+
+    public class Lease implements Closeable {
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        public DockerClient getClient() {
+            return SharedDockerClient.this.client;
+        }
+
+        @Override
+        public void close() {
+            if (this.closed.compareAndSet(false, true)) {
+                release();
+            }
+        }
+    }
+
+    public class Stats {
+        private final PoolStats pool = SharedDockerClient.this.references.get() == 0 ? null : SharedDockerClient.this.execFactory.getConnectionPoolStats();
+
+        public Date getCreated() {
+            return SharedDockerClient.this.created;
+        }
+
+        public long getLeases() {
+            return SharedDockerClient.this.leases.get();
+        }
+
+        public int getActiveLeases() {
+            final int references = SharedDockerClient.this.references.get();
+            return SharedDockerClient.this.retired.get() ? references : Math.max(references - 1, 0);
+        }
+
+        public long getRequests() {
+            return SharedDockerClient.this.requests.get();
+        }
+
+        public int getLeasedConnections() {
+            return this.pool == null ? 0 : this.pool.getLeased();
+        }
+
+        public int getIdleConnections() {
+            return this.pool == null ? 0 : this.pool.getAvailable();
+        }
+
+        public int getMaxConnections() {
+            return this.pool == null ? 0 : this.pool.getMax();
+        }
+
+        public int getPendingConnections() {
+            return this.pool == null ? 0 : this.pool.getPending();
+        }
+    }
+
+    public static class RequestCounter implements ClientRequestFilter {
+        private final AtomicLong requests;
+
+        RequestCounter(final AtomicLong requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public void filter(final ClientRequestContext requestContext) {
+            this.requests.incrementAndGet();
+        }
+    }
+}
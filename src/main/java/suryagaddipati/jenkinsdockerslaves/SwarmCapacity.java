@@ -0,0 +1,456 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import com.github.dockerjava.api.model.Info;
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cached view of the cpu and memory reserved on each swarm node. Builds are only handed to docker when their label's
+ * limits fit on some node; admitted builds are deducted locally until the next refresh reports the real reservations.
+ * While no usable snapshot exists everything is admitted.
+ * <p>
+ * Unless placement is left to swarm, the configured {@link Strategy} picks the node and the launcher pins the
+ * container to it: best fit packs builds onto the fullest node that still fits, keeping whole nodes free for large
+ * builds; worst fit leaves the most room on the chosen node; spread picks the node running the fewest containers.
+ * Builds of labels with cache dirs go to the most recent {@link CacheAffinity} node that fits, under a soft constraint,
+ * and only fall back to the strategy when none does.
+ */
+public class SwarmCapacity {
+    private static final Logger LOGGER = Logger.getLogger(SwarmCapacity.class.getName());
+    private static final Pattern SIZE = Pattern.compile("([0-9.]+)\\s*([KMGTP]i)?B");
+
+    private static volatile SwarmCapacity current;
+    private static final AtomicLong placed = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+
+    public enum Strategy {
+        SWARM, BEST_FIT, WORST_FIT, SPREAD;
+
+        static Strategy of(final String name) {
+            try {
+                return name == null ? SWARM : valueOf(name);
+            } catch (final IllegalArgumentException e) {
+                return SWARM;
+            }
+        }
+    }
+
+    private final List<NodeCapacity> nodes;
+    private final Date refreshed = new Date();
+
+    private SwarmCapacity(final List<NodeCapacity> nodes) {
+        this.nodes = nodes;
+    }
+
+    public static SwarmCapacity get() {
+        return current;
+    }
+
+    /**
+     * @return where the build was reserved, or null if it fits on no node.
+     */
+    public static Placement place(final Queue.Task task, final LabelConfiguration labelConfiguration) {
+        final SwarmCapacity capacity = current;
+        if (capacity == null || labelConfiguration == null) {
+            return Placement.ANY;
+        }
+        final ResourceHistory.Allocation allocation = ResourceHistory.allocate(task, labelConfiguration);
+        final boolean cpuset = LabelConfiguration.CPU_CPUSET.equals(labelConfiguration.getCpuLimitMode());
+        if (cpuset) {
+            // reserve on a node with a free cpu range, which the launch then pins
+            final NodeCapacity pinned = capacity.reserveOn(CpusetAllocator.getCandidates(allocation.getCpus(), labelConfiguration.getCpusPerNumaNode()),
+                    allocation.getCpus(), allocation.getMemory());
+            if (pinned != null) {
+                placed.incrementAndGet();
+                return new Placement(pinned.getName(), false);
+            }
+            // no free range; the launch falls back to quota mode and is placed like any other
+        }
+        final Strategy strategy = Strategy.of(DockerSlaveConfiguration.get().getPlacementStrategy());
+        if (!cpuset && labelConfiguration.getCacheDirs().length > 0) {
+            final NodeCapacity warm = capacity.reserveOn(CacheAffinity.getWarmNodes(task), allocation.getCpus(), allocation.getMemory());
+            if (warm != null) {
+                placed.incrementAndGet();
+                return new Placement(warm.getName(), true);
+            }
+        }
+        final NodeCapacity node = capacity.reserve(allocation.getCpus(), allocation.getMemory(), strategy);
+        if (node == null) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        placed.incrementAndGet();
+        return strategy == Strategy.SWARM ? Placement.ANY : new Placement(node.getName(), false);
+    }
+
+    public static void refreshSoon() {
+        Timer.get().submit(SwarmCapacity::refresh);
+    }
+
+    public static synchronized void refresh() {
+        final SwarmCapacity previous = current;
+        try (SharedDockerClient.Lease lease = DockerSlaveConfiguration.get().leaseDockerClient()) {
+            final Info info = CircuitBreaker.DOCKER.call(lease.getClient().infoCmd()::exec); // the trial call once the circuit half opens
+            final List<NodeCapacity> nodes = parse(info);
+            ClusterSnapshot.rebuild(nodes); // before any local reservation is deducted
+            current = nodes.isEmpty() ? null : new SwarmCapacity(nodes);
+        } catch (final Exception e) {
+            LOGGER.log(Level.FINE, "couldn't refresh swarm capacity", e);
+            current = null;
+            ClusterSnapshot.rebuild(Collections.emptyList());
+        }
+        final SwarmCapacity refreshed = current;
+        if (refreshed != null && (previous == null || refreshed.getFreeCpus() > previous.getFreeCpus() || refreshed.getFreeMemory() > previous.getFreeMemory())) {
+            ProvisioningLoop.signal("swarm capacity freed");
+        }
+    }
+
+    private synchronized NodeCapacity reserveOn(final List<String> preferred, final int cpus, final long memory) {
+        for (final String name : preferred) {
+            for (final NodeCapacity node : this.nodes) {
+                if (node.name.equals(name) && node.fits(cpus, memory)) {
+                    node.reserve(cpus, memory);
+                    return node;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized NodeCapacity reserve(final int cpus, final long memory, final Strategy strategy) {
+        NodeCapacity chosen = null;
+        for (final NodeCapacity node : this.nodes) {
+            if (node.fits(cpus, memory) && (chosen == null || better(strategy, node, chosen, cpus, memory))) {
+                chosen = node;
+            }
+        }
+        if (chosen != null) {
+            chosen.reserve(cpus, memory);
+        }
+        return chosen;
+    }
+
+    private static boolean better(final Strategy strategy, final NodeCapacity node, final NodeCapacity chosen, final int cpus, final long memory) {
+        switch (strategy) {
+            case BEST_FIT:
+                return node.leftover(cpus, memory) < chosen.leftover(cpus, memory);
+            case WORST_FIT:
+                return node.leftover(cpus, memory) > chosen.leftover(cpus, memory);
+            case SPREAD:
+                return node.containers < chosen.containers
+                        || node.containers == chosen.containers && node.leftover(cpus, memory) > chosen.leftover(cpus, memory);
+            default:
+                return false;
+        }
+    }
+
+    public List<NodeCapacity> getNodes() {
+        return Collections.unmodifiableList(this.nodes);
+    }
+
+    public Date getRefreshed() {
+        return this.refreshed;
+    }
+
+    public synchronized int getFreeCpus() {
+        int free = 0;
+        for (final NodeCapacity node : this.nodes) {
+            free += node.getFreeCpus();
+        }
+        return free;
+    }
+
+    public synchronized long getFreeMemory() {
+        long free = 0;
+        for (final NodeCapacity node : this.nodes) {
+            free += node.getFreeMemory();
+        }
+        return free;
+    }
+
+    private static List<NodeCapacity> parse(final Info info) {
+        final List<NodeCapacity> nodes = new ArrayList<>();
+        final List<Object> systemStatus = info.getSystemStatus();
+        if (systemStatus == null) {
+            return nodes;
+        }
+        final List<Object> nodeInfo = systemStatus.subList(getNodeIndex(systemStatus), systemStatus.size());
+        for (final List<Object> node : Lists.partition(nodeInfo, 9)) {
+            final String[] cpus = get(node, 4).split("/");
+            final String[] memory = get(node, 5).split("/");
+            if (cpus.length == 2 && memory.length == 2) {
+                try {
+                    nodes.add(new NodeCapacity(((List<String>) node.get(0)).get(0).trim(), "Healthy".equals(get(node, 2)),
+                            Integer.parseInt(cpus[0].trim()), Integer.parseInt(cpus[1].trim()),
+                            parseBytes(memory[0]), parseBytes(memory[1]), parseContainers(get(node, 3))));
+                } catch (final NumberFormatException e) {
+                    LOGGER.log(Level.FINE, "couldn't parse swarm node " + node, e);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static int getNodeIndex(final List<Object> systemStatus) {
+        for (int i = 0; i < systemStatus.size(); i++) {
+            final List<String> stat = (List<String>) systemStatus.get(i);
+            if (stat.get(0).equals("Nodes")) return i + 1;
+        }
+        return 0;
+    }
+
+    private static String get(final List<Object> node, final int i) {
+        final List<String> stat = (List<String>) node.get(i);
+        return stat == null || stat.size() < 2 ? "" : stat.get(1);
+    }
+
+    private static int parseContainers(final String containers) {
+        try {
+            return Integer.parseInt(containers.trim());
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static long parseBytes(final String size) {
+        final Matcher matcher = SIZE.matcher(size.trim());
+        if (!matcher.matches()) {
+            throw new NumberFormatException("Not a size: " + size);
+        }
+        final double value = Double.parseDouble(matcher.group(1));
+        final String unit = matcher.group(2);
+        final int exponent = unit == null ? 0 : "KMGTP".indexOf(unit.charAt(0)) + 1;
+        return (long) (value * Math.pow(1024, exponent));
+    }
+
+    public static class NodeCapacity {
+        private final String name;
+        private final boolean healthy;
+        private final int totalCpus;
+        private final long totalMemory;
+        private int reservedCpus;
+        private long reservedMemory;
+        private int containers;
+
+        NodeCapacity(final String name, final boolean healthy, final int reservedCpus, final int totalCpus, final long reservedMemory, final long totalMemory, final int containers) {
+            this.name = name;
+            this.healthy = healthy;
+            this.reservedCpus = reservedCpus;
+            this.totalCpus = totalCpus;
+            this.reservedMemory = reservedMemory;
+            this.totalMemory = totalMemory;
+            this.containers = containers;
+        }
+
+        boolean fits(final int cpus, final long memory) {
+            return this.healthy && getFreeCpus() >= cpus && getFreeMemory() >= memory;
+        }
+
+        private void reserve(final int cpus, final long memory) {
+            this.reservedCpus += cpus;
+            this.reservedMemory += memory;
+            this.containers++;
+        }
+
+        /**
+         * @return share of the node's cpus and memory left free after placing a build, 0 to 2.
+         */
+        double leftover(final int cpus, final long memory) {
+            return (this.totalCpus == 0 ? 0 : (double) (getFreeCpus() - cpus) / this.totalCpus)
+                    + (this.totalMemory == 0 ? 0 : (double) (getFreeMemory() - memory) / this.totalMemory);
+        }
+
+        public int getContainers() {
+            return this.containers;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public boolean isHealthy() {
+            return this.healthy;
+        }
+
+        public int getReservedCpus() {
+            return this.reservedCpus;
+        }
+
+        public long getReservedMemory() {
+            return this.reservedMemory;
+        }
+
+        public int getTotalCpus() {
+            return this.totalCpus;
+        }
+
+        public long getTotalMemory() {
+            return this.totalMemory;
+        }
+
+        public int getFreeCpus() {
+            return this.healthy ? Math.max(this.totalCpus - this.reservedCpus, 0) : 0;
+        }
+
+        public long getFreeMemory() {
+            return this.healthy ? Math.max(this.totalMemory - this.reservedMemory, 0) : 0;
+        }
+    }
+
+    public static class Placement {
+        static final Placement ANY = new Placement(null, false);
+
+        private final String node;
+        private final boolean soft;
+
+        Placement(final String node, final boolean soft) {
+            this.node = node;
+            this.soft = soft;
+        }
+
+        /**
+         * @return the swarm node to pin the container to, or null to let swarm choose.
+         */
+        public String getNode() {
+            return this.node;
+        }
+
+        /**
+         * @return whether swarm may still use another node, as for cache affinity.
+         */
+        public boolean isSoft() {
+            return this.soft;
+        }
+
+    }
+
+    /**
+     * Utilization of the healthy nodes, and how fragmented their free resources are: 0 when all free memory (or
+     * cpus) is on one node, approaching 1 as it is scattered in pieces too small for a large build.
+     */
+    public static class Metrics {
+        private final int nodes;
+        private final double cpuUtilization;
+        private final double memoryUtilization;
+        private final double cpuFragmentation;
+        private final double memoryFragmentation;
+        private final int largestFreeCpus;
+        private final long largestFreeMemory;
+        private final String strategy = Strategy.of(DockerSlaveConfiguration.get().getPlacementStrategy()).name();
+        private final long placed = SwarmCapacity.placed.get();
+        private final long rejected = SwarmCapacity.rejected.get();
+
+        Metrics(final List<NodeCapacity> capacities) {
+            int nodes = 0;
+            long totalCpus = 0, freeCpus = 0, totalMemory = 0, freeMemory = 0;
+            int largestFreeCpus = 0;
+            long largestFreeMemory = 0;
+            for (final NodeCapacity node : capacities) {
+                if (node.isHealthy()) {
+                    nodes++;
+                    totalCpus += node.getTotalCpus();
+                    freeCpus += node.getFreeCpus();
+                    totalMemory += node.getTotalMemory();
+                    freeMemory += node.getFreeMemory();
+                    largestFreeCpus = Math.max(largestFreeCpus, node.getFreeCpus());
+                    largestFreeMemory = Math.max(largestFreeMemory, node.getFreeMemory());
+                }
+            }
+            this.nodes = nodes;
+            this.cpuUtilization = totalCpus == 0 ? 0 : 1 - (double) freeCpus / totalCpus;
+            this.memoryUtilization = totalMemory == 0 ? 0 : 1 - (double) freeMemory / totalMemory;
+            this.cpuFragmentation = freeCpus == 0 ? 0 : 1 - (double) largestFreeCpus / freeCpus;
+            this.memoryFragmentation = freeMemory == 0 ? 0 : 1 - (double) largestFreeMemory / freeMemory;
+            this.largestFreeCpus = largestFreeCpus;
+            this.largestFreeMemory = largestFreeMemory;
+        }
+
+        public int getNodes() {
+            return this.nodes;
+        }
+
+        public double getCpuUtilization() {
+            return this.cpuUtilization;
+        }
+
+        public double getMemoryUtilization() {
+            return this.memoryUtilization;
+        }
+
+        public double getCpuFragmentation() {
+            return this.cpuFragmentation;
+        }
+
+        public double getMemoryFragmentation() {
+            return this.memoryFragmentation;
+        }
+
+        public int getLargestFreeCpus() {
+            return this.largestFreeCpus;
+        }
+
+        public long getLargestFreeMemory() {
+            return this.largestFreeMemory;
+        }
+
+        public String getStrategy() {
+            return this.strategy;
+        }
+
+        public long getPlaced() {
+            return this.placed;
+        }
+
+        public long getRejected() {
+            return this.rejected;
+        }
+
+        JSONObject toJson() {
+            final JSONObject json = new JSONObject();
+            json.put("strategy", this.strategy);
+            json.put("nodes", this.nodes);
+            json.put("cpuUtilization", this.cpuUtilization);
+            json.put("memoryUtilization", this.memoryUtilization);
+            json.put("cpuFragmentation", this.cpuFragmentation);
+            json.put("memoryFragmentation", this.memoryFragmentation);
+            json.put("largestFreeCpus", this.largestFreeCpus);
+            json.put("largestFreeMemory", this.largestFreeMemory);
+            json.put("placed", this.placed);
+            json.put("rejected", this.rejected);
+            return json;
+        }
+    }
+
+    @Extension
+    public static class Refresher extends AsyncPeriodicWork {
+        public Refresher() {
+            super("Swarm capacity refresher");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(Long.getLong(SwarmCapacity.class.getName() + ".refreshSeconds", 10));
+        }
+
+        @Override
+        protected void execute(final TaskListener listener) {
+            refresh();
+        }
+    }
+}
@@ -1,28 +1,20 @@
 package suryagaddipati.jenkinsdockerslaves;
 
-import com.github.dockerjava.api.DockerClient;
-import com.github.dockerjava.api.model.Info;
-import com.github.dockerjava.api.model.InternetProtocol;
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import hudson.Extension;
-import hudson.model.Computer;
-import hudson.model.Job;
+import hudson.Functions;
 import hudson.model.Queue;
 import hudson.model.RootAction;
 import hudson.model.Run;
-import hudson.model.TopLevelItem;
-import jenkins.model.Jenkins;
 import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Extension
 public class SwarmDashboard implements RootAction{
@@ -41,97 +33,94 @@ public class SwarmDashboard implements RootAction{
     }
 
 
+    public ClusterSnapshot getSnapshot(){
+        return ClusterSnapshot.get();
+    }
+
     public Iterable getQueue(){
-        List<SwarmQueueItem> queue = new ArrayList<>();
-        Queue.Item[] items = Jenkins.getInstance().getQueue().getItems();
-        for(int i = items.length-1 ; i >=0 ; i-- ){ //reverse order
-            Queue.Item item = items[i];
-            DockerSlaveInfo slaveInfo = item.getAction(DockerSlaveInfo.class);
-            if( slaveInfo != null && item instanceof Queue.BuildableItem && !slaveInfo.isProvisioningInProgress()){
-                queue.add(new SwarmQueueItem((Queue.BuildableItem)item));
-            }
-        }
-        return  queue;
+        return getSnapshot().getQueue();
     }
 
 
-    public Iterable<SwarmNode> getNodes(){
-
-        DockerSlaveConfiguration configuration = DockerSlaveConfiguration.get();
-        try( DockerClient dockerClient = configuration.newDockerClient()) {
-            Info info = dockerClient.infoCmd().exec();
-            List<Object> nodeInfo = info.getSystemStatus().subList(getNodeIndex(info), info.getSystemStatus().size());
-            List<List<Object>> nodes = Lists.partition(nodeInfo, 9);
-            final List<Computer> dockerComputers = filterDockerComputers(Jenkins.getInstance().getComputers());
-            return Iterables.transform(nodes, nodeInformation -> new SwarmNode(nodeInformation, dockerComputers));
-        } catch (IOException e) {
-            return new ArrayList<>();
-        }
+    public Iterable<WarmPool> getWarmPools(){
+        return WarmPool.all();
     }
 
-    public  String getUsage(){
+    public Reaper getReaper(){
+        return Reaper.get();
+    }
 
-        ArrayList<Object> usage = new ArrayList<>();
-        usage.add(Arrays.asList("Job","cpu"));
-
-       Map<String,Integer> usagePerJob = new HashMap<>();
-        int totalCpus = 0;
-        int totalReservedCpus = 0;
-        for(SwarmNode node: getNodes()){
-          totalCpus +=node.getTotalCPUs();
-            for(Run build :node.getCurrentBuilds()){
-                String jobName = getJobName(build);
-                Integer reservedCpus = getReservedCPUs(build);
-                totalReservedCpus += reservedCpus;
-                if(usagePerJob.containsKey(jobName)){
-                  usagePerJob.put(jobName, usagePerJob.get(jobName)+reservedCpus);
-                }else {
-                    usagePerJob.put(jobName, reservedCpus);
-                }
-            }
-        }
-        usagePerJob.put("Available " , totalCpus - totalReservedCpus);
+    public CacheAffinity getCacheAffinity(){
+        return CacheAffinity.get();
+    }
 
-        for (String jobName: usagePerJob.keySet()){
-            Integer jobUsage = usagePerJob.get(jobName);
-            usage.add(Arrays.asList(jobName + " - "+jobUsage ,jobUsage));
-        }
+    public long getCacheVolumesRemoved(){
+        return CacheVolumeManager.getRemoved();
+    }
 
+    public Map<String, ImageWarmer.ImageState> getImages(){
+        return ImageWarmer.getImages();
+    }
 
-        JSONArray mJSONArray = new JSONArray();
-        mJSONArray.addAll(usage);
-        return mJSONArray.toString();
+    public Map<String, LatencyHistogram> getLaunchLatencies(){
+        return LaunchLatency.getLabels();
     }
 
-    private String getJobName(Run build) {
-        Job parent = build.getParent();
-        return getTopLevelItem(parent).getFullDisplayName();
+    public long getStuckThresholdSeconds(String label){
+        return TimeUnit.MILLISECONDS.toSeconds(LaunchLatency.getStuckThresholdMillis(label));
     }
 
-    private Job getTopLevelItem(Job job) {
-        return job.getParent() instanceof  Job ? (Job) job.getParent() : job;
+    public long getStuckLaunches(){
+        return LaunchLatency.getStuck();
     }
 
-    private Integer getReservedCPUs(Run build) {
-        DockerSlaveInfo slaveInfo = build.getAction(DockerSlaveInfo.class);
-        return slaveInfo == null? 0: (slaveInfo.getCpuAllocation()==null?0: slaveInfo.getCpuAllocation());
+    public OrphanReconciler.Report getOrphansReclaimed(){
+        return OrphanReconciler.getTotals();
     }
 
-    private List<Computer> filterDockerComputers(Computer[] computers) {
-        List<Computer> dockerComputers = new ArrayList<>();
-        for (int i = 0; i < computers.length ; i++) {
-            if(computers[i] instanceof  DockerComputer) dockerComputers.add(computers[i]);
+    /**
+     * Nodes, queue and per job cpu usage as JSON. {@code ?since=<version>} leaves out sections unchanged since then;
+     * the ETag is the snapshot version, so a poller sending If-None-Match gets a 304 until something changes. Both
+     * include the epoch, so after a restart they no longer match.
+     */
+    public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        ClusterSnapshot snapshot = getSnapshot();
+        String etag = "\"" + snapshot.getVersion() + "\"";
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", "no-cache");
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        long since = -1;
+        String sinceParam = req.getParameter("since");
+        if (sinceParam != null) {
+            try {
+                since = ClusterSnapshot.parseVersion(sinceParam);
+            } catch (NumberFormatException e) {
+                rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "since must be a version number");
+                return;
+            }
         }
-        return dockerComputers;
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(snapshot.toJson(since).toString());
     }
 
-    private int getNodeIndex(Info info) {
-        List<Object> systemStatus = info.getSystemStatus();
-        for(int i =0; i < systemStatus.size(); i++){
-            List<String>  stat = (List<String>) systemStatus.get(i);
-            if(stat.get(0).equals("Nodes"))return i+1;
-        }
-        return 0;
+    /**
+     * Per label histograms of each provisioning phase, of whole launches and the resulting stuck thresholds, as JSON.
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(LaunchTimings.toJson().toString());
+    }
+
+    public Iterable<SwarmNode> getNodes(){
+        return getSnapshot().getNodes();
+    }
+
+    public  String getUsage(){
+        return getSnapshot().getUsage();
     }
 
 
@@ -141,12 +130,26 @@ public class SwarmDashboard implements RootAction{
         private final String label;
         private final LabelConfiguration labelConfig;
         private final String inQueueSince;
+        private final long inQueueSinceMillis;
 
         public SwarmQueueItem(Queue.BuildableItem item) {
             name = item.task.getFullDisplayName();
             label = item.task.getAssignedLabel().getName();
             labelConfig = DockerSlaveConfiguration.get().getLabelConfiguration(label);
             inQueueSince = item.getInQueueForString();
+            inQueueSinceMillis = item.getInQueueSince();
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("label", label);
+            json.put("inQueueSince", inQueueSinceMillis);
+            if (labelConfig != null) {
+                json.put("cpus", labelConfig.getMaxCpuShares());
+                json.put("memory", labelConfig.getMaxMemory());
+            }
+            return json;
         }
         public String getName() {
             return name;
@@ -166,59 +169,41 @@ public class SwarmDashboard implements RootAction{
     }
 
     public static class SwarmNode{
-        //Healthy
-        private final String healthy;
-        private final Iterable<String> computers;
-        private String name;
-
-
-
+        private final String name;
+        private final boolean healthy;
+        private final int reservedCpus;
+        private final int totalCpus;
         private final String reservedCPUs;
-
-
         private final String reservedMemory;
+        private final int computerCount;
+        private final List<Run> currentBuilds;
 
-        public SwarmNode(List<Object> info, List<Computer> dockerComputers) {
-            name = get(info,0,0);
-            healthy =  get(info,2,1);
-            reservedCPUs = get(info,4,1);
-            reservedMemory = get(info,5,1);
-            Iterable<Computer> currentComputers = Iterables.filter(dockerComputers, new Predicate<Computer>() {
-                public boolean apply(Computer computer) {
-                    String computerSwarmNodeName = ((DockerComputer) computer).getSwarmNodeName();
-                    computerSwarmNodeName = (computerSwarmNodeName == null ? "" : computerSwarmNodeName.trim());
-                    return name.contains(computerSwarmNodeName) || computerSwarmNodeName.contains(name);
-                }
-            });
-
-            if(!Iterables.isEmpty(currentComputers)){
-                this.computers = Iterables.transform(currentComputers, computer -> computer.getName());
-            }else{
-                computers = new ArrayList<>();
-            }
-        }
-        private static String get(List<Object> info, int i, int j) {
-            return (info.get(i) == null||  j > ((List<String>)info.get(i)).size()-1 )  ? "_/-":  ((List<String>)info.get(i)).get(j);
-
+        SwarmNode(SwarmCapacity.NodeCapacity capacity, int computerCount, List<Run> currentBuilds) {
+            name = capacity.getName();
+            healthy = capacity.isHealthy();
+            reservedCpus = capacity.getReservedCpus();
+            totalCpus = capacity.getTotalCpus();
+            reservedCPUs = capacity.getReservedCpus() + " / " + capacity.getTotalCpus();
+            reservedMemory = Functions.humanReadableByteSize(capacity.getReservedMemory()) + " / " + Functions.humanReadableByteSize(capacity.getTotalMemory());
+            this.computerCount = computerCount;
+            this.currentBuilds = currentBuilds;
         }
 
         public String getName() {
             return name;
         }
         public boolean isHealthy(){
-            return healthy == "Healthy" ;
+            return healthy;
         }
         public boolean isFull(){
-            String[] cpus = reservedCPUs.split("/");
-            return  cpus.length == 2? cpus[0].trim().equals(cpus[1].trim()): false;
+            return totalCpus > 0 && reservedCpus >= totalCpus;
         }
         public int getTotalCPUs(){
-            String[] cpus = reservedCPUs.split("/");
-            return  cpus.length == 2? Integer.parseInt(cpus[1].trim()): 0;
+            return totalCpus;
         }
 
         public int getComputerCount(){
-            return Iterables.size(computers) ;
+            return computerCount;
         }
         public String getReservedCPUs() {
             return reservedCPUs;
@@ -228,15 +213,27 @@ public class SwarmDashboard implements RootAction{
         }
 
         public List<Run> getCurrentBuilds(){
-            Jenkins jenkins = Jenkins.getInstance();
-            List currentBuilds = new ArrayList();
-            for(String computer : computers){
-                Queue.Executable currentBuild = ((DockerComputer) jenkins.getComputer(computer)).getCurrentBuild();
-                if(currentBuild instanceof Run){
-                    currentBuilds.add(currentBuild);
-                }
+            return currentBuilds;
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("healthy", healthy);
+            json.put("full", isFull());
+            json.put("reservedCpus", reservedCpus);
+            json.put("totalCpus", totalCpus);
+            json.put("reservedMemory", reservedMemory);
+            json.put("computers", computerCount);
+            JSONArray builds = new JSONArray();
+            for (Run build : currentBuilds) {
+                JSONObject buildJson = new JSONObject();
+                buildJson.put("name", build.getFullDisplayName());
+                buildJson.put("url", build.getUrl());
+                builds.add(buildJson);
             }
-            return  currentBuilds;
+            json.put("builds", builds);
+            return json;
         }
 
     }
@@ -0,0 +1,215 @@
+package suryagaddipati.jenkinsdockerslaves;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Slaves started ahead of demand for a label. Warm slaves are connected and idle; a matching queue item takes one
+ * over by being assigned to its node name, and the pool is topped up again in the background.
+ */
+public class WarmPool {
+    private static final Logger LOGGER = Logger.getLogger(WarmPool.class.getName());
+    private static final long REGISTRATION_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, WarmPool> pools = new ConcurrentHashMap<>();
+
+    private final String label;
+    private final ConcurrentLinkedDeque<Slot> slots = new ConcurrentLinkedDeque<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong totalIdleMillis = new AtomicLong();
+    private final AtomicLong maxIdleMillis = new AtomicLong();
+
+    private WarmPool(final String label) {
+        this.label = label;
+    }
+
+    public static WarmPool get(final String label) {
+        return pools.computeIfAbsent(label, WarmPool::new);
+    }
+
+    public static Collection<WarmPool> all() {
+        return new ArrayList<>(pools.values());
+    }
+
+    /**
+     * @return name of the warm slave handed to this item, or null if the item needs a new slave.
+     */
+    public static String claim(final Queue.BuildableItem bi) {
+        final Label assignedLabel = bi.task.getAssignedLabel();
+        if (assignedLabel == null) {
+            return null;
+        }
+        final LabelConfiguration labelConfiguration = DockerSlaveConfiguration.get().getLabelConfiguration(assignedLabel.getName());
+        if (labelConfiguration == null || !labelConfiguration.isWarmPoolEnabled()) {
+            return null;
+        }
+        final WarmPool pool = get(labelConfiguration.getLabel());
+        final String slave = pool.take(bi);
+        Timer.get().submit(pool::replenish);
+        return slave;
+    }
+
+    private String take(final Queue.BuildableItem bi) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        for (final Slot slot : this.slots) {
+            final Computer computer = jenkins.getComputer(slot.name);
+            if (computer instanceof DockerComputer && computer.isOnline() && computer.isIdle() && this.slots.remove(slot)) {
+                handOver((DockerComputer) computer, bi);
+                final long idleMillis = System.currentTimeMillis() - computer.getConnectTime();
+                this.hits.incrementAndGet();
+                this.totalIdleMillis.addAndGet(idleMillis);
+                this.maxIdleMillis.accumulateAndGet(idleMillis, Math::max);
+                return slot.name;
+            }
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    private void handOver(final DockerComputer computer, final Queue.BuildableItem bi) {
+        final DockerSlave slave = computer.getNode();
+        if (slave != null && slave.getLauncher() instanceof DockerComputerLauncher) {
+            final DockerSlaveInfo slaveInfo = ((DockerComputerLauncher) slave.getLauncher()).getWarmSlaveInfo();
+            if (slaveInfo != null) {
+                bi.replaceAction(slaveInfo);
+            }
+        }
+        if (bi.task instanceof AbstractProject) {
+            ((AbstractProject) bi.task).setCustomWorkspace(DockerSlaveConfiguration.get().getBaseWorkspaceLocation());
+        }
+    }
+
+    public synchronized void replenish() {
+        final Jenkins jenkins = Jenkins.getInstance();
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Slot> it = this.slots.iterator(); it.hasNext(); ) {
+            final Slot slot = it.next();
+            if (jenkins.getNode(slot.name) == null && now - slot.created > REGISTRATION_GRACE_MILLIS) {
+                it.remove(); // launch failed and the node was removed
+            }
+        }
+
+        final LabelConfiguration labelConfiguration = DockerSlaveConfiguration.get().getLabelConfiguration(this.label);
+        final int target = labelConfiguration == null || !labelConfiguration.isWarmPoolEnabled() ? 0 : labelConfiguration.getWarmPoolSize();
+        for (int i = this.slots.size(); i < target && !CircuitBreaker.DOCKER.isOpen(); i++) {
+            final SwarmCapacity.Placement placement = SwarmCapacity.place(null, labelConfiguration);
+            if (placement == null) {
+                break;
+            }
+            final String name = BuildScheduler.nextLabelId();
+            try {
+                NodeRegistrar.register(new DockerSlave(name, labelConfiguration, placement));
+                this.slots.add(new Slot(name, now));
+            } catch (IOException | Descriptor.FormException e) {
+                LOGGER.log(Level.INFO, "couldn't create warm slave for " + this.label, e);
+            }
+        }
+        while (this.slots.size() > target) {
+            final Slot slot = this.slots.pollLast();
+            if (slot == null) {
+                break;
+            }
+            final Computer computer = jenkins.getComputer(slot.name);
+            if (computer instanceof DockerComputer) {
+                Computer.threadPoolForRemoting.submit(((DockerComputer) computer)::delete);
+            }
+        }
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    public int getReady() {
+        final Jenkins jenkins = Jenkins.getInstance();
+        int ready = 0;
+        for (final Slot slot : this.slots) {
+            final Computer computer = jenkins.getComputer(slot.name);
+            if (computer != null && computer.isOnline()) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    public int getLaunching() {
+        return this.slots.size() - getReady();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public int getHitRate() {
+        final long claims = getHits() + getMisses();
+        return claims == 0 ? 0 : (int) (getHits() * 100 / claims);
+    }
+
+    public long getAverageIdleSeconds() {
+        final long hits = getHits();
+        return hits == 0 ? 0 : TimeUnit.MILLISECONDS.toSeconds(this.totalIdleMillis.get() / hits);
+    }
+
+    public long getMaxIdleSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(this.maxIdleMillis.get());
+    }
+
+    private static class Slot {
+        private final String name;
+        private final long created;
+
+        private Slot(final String name, final long created) {
+            this.name = name;
+            this.created = created;
+        }
+    }
+
+    @Extension
+    public static class Maintainer extends AsyncPeriodicWork {
+        public Maintainer() {
+            super("Docker warm pool maintainer");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(30);
+        }
+
+        @Override
+        protected void execute(final TaskListener listener) {
+            for (final LabelConfiguration labelConfiguration : DockerSlaveConfiguration.get().getLabelConfigurations()) {
+                if (labelConfiguration.isWarmPoolEnabled()) {
+                    get(labelConfiguration.getLabel());
+                }
+            }
+            for (final WarmPool pool : all()) {
+                pool.replenish();
+            }
+        }
+    }
+}